@@ -0,0 +1,59 @@
+package com.venky.ocr.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.venky.ocr.FontModel;
+import com.venky.ocr.TextRecognizer;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConstructionBenchmark {
+	private Properties properties;
+	private BufferedImage trainingImage;
+	private byte[] compiled;
+
+	@Setup
+	public void setup() throws IOException {
+		properties = new Properties();
+		properties.load(getClass().getResourceAsStream("/com/venky/ocr/monospace.properties"));
+		trainingImage = Fixtures.read("monospace-big.jpg");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FontModel.get("monospace").write(out);
+		compiled = out.toByteArray();
+	}
+
+	@Benchmark
+	public FontModel trainFontModel() {
+		return new FontModel("monospace", properties, trainingImage);
+	}
+
+	@Benchmark
+	public FontModel loadCompiledModel() throws IOException {
+		return FontModel.read(ByteBuffer.wrap(compiled));
+	}
+
+	@Benchmark
+	public TextRecognizer constructRecognizer() {
+		return new TextRecognizer();
+	}
+}
@@ -0,0 +1,50 @@
+package com.venky.ocr.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Properties;
+
+import javax.imageio.ImageIO;
+
+import com.venky.ocr.FontModel;
+
+public class Fixtures {
+	public static BufferedImage read(String name) {
+		try {
+			return ImageIO.read(Fixtures.class.getResourceAsStream("/com/venky/ocr/" + name));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * A page made of the tile repeated the given number of times one below the other.
+	 */
+	public static BufferedImage page(BufferedImage tile, int repeats) {
+		BufferedImage page = new BufferedImage(tile.getWidth(), tile.getHeight() * repeats, tile.getType());
+		Graphics2D g = page.createGraphics();
+		for (int i = 0; i < repeats; i++) {
+			g.drawImage(tile, 0, i * tile.getHeight(), null);
+		}
+		g.dispose();
+		return page;
+	}
+
+	/**
+	 * The monospace model trained afresh, so that it starts with empty caches, with the given properties set over
+	 * monospace.properties. Overrides alternate names and values.
+	 */
+	public static FontModel model(String... overrides) {
+		Properties properties = new Properties();
+		try {
+			properties.load(Fixtures.class.getResourceAsStream("/com/venky/ocr/monospace.properties"));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		for (int i = 0; i < overrides.length; i += 2) {
+			properties.setProperty(overrides[i], overrides[i + 1]);
+		}
+		return new FontModel("monospace", properties, read("monospace-big.jpg"));
+	}
+}
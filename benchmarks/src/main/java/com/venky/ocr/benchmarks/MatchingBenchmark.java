@@ -0,0 +1,79 @@
+package com.venky.ocr.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.venky.ocr.BinaryImage;
+import com.venky.ocr.ImageUtil;
+import com.venky.ocr.TextRecognizer;
+import com.venky.ocr.TextRecognizer.CharacterRegion;
+import com.venky.ocr.TextRecognizer.Line;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MatchingBenchmark {
+	private int threshold;
+	private BufferedImage glyph;
+	private BufferedImage other;
+	private BinaryImage glyphBits;
+	private BinaryImage otherBits;
+
+	@Setup
+	public void setup() {
+		TextRecognizer recognizer = new TextRecognizer();
+		threshold = recognizer.getMinColorThreshold();
+		Line line = recognizer.getLines(Fixtures.read("a-z.jpg")).get(0);
+		CharacterRegion first = line.first();
+		CharacterRegion last = line.last();
+
+		glyph = first.croppedImage();
+		other = ImageUtil.threshold(ImageUtil.scale(last.croppedImage(), first.width(), first.height()), threshold);
+		glyphBits = first.bitmap();
+		otherBits = ImageUtil.scale(last.bitmap(), first.width(), first.height(), threshold);
+	}
+
+	@Benchmark
+	public BufferedImage scaleUp() {
+		return ImageUtil.scale(glyph, glyph.getWidth() * 2, glyph.getHeight() * 2);
+	}
+
+	@Benchmark
+	public BufferedImage scaleDown() {
+		return ImageUtil.scale(glyph, glyph.getWidth() / 2, glyph.getHeight() / 2);
+	}
+
+	@Benchmark
+	public BinaryImage resampleUp() {
+		return ImageUtil.resample(glyphBits, glyphBits.getWidth() * 2, glyphBits.getHeight() * 2);
+	}
+
+	@Benchmark
+	public BinaryImage resampleDown() {
+		return ImageUtil.resample(glyphBits, glyphBits.getWidth() / 2, glyphBits.getHeight() / 2);
+	}
+
+	@Benchmark
+	public double distanceBetweenImages() {
+		return ImageUtil.distanceBetween(glyph, other);
+	}
+
+	@Benchmark
+	public double distanceBetweenBitmaps() {
+		return ImageUtil.distanceBetween(glyphBits, otherBits);
+	}
+}
@@ -0,0 +1,58 @@
+package com.venky.ocr.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.venky.ocr.TextRecognizer;
+import com.venky.ocr.TextRecognizer.Line;
+
+/**
+ * Synthetic pages made of stress.jpg stacked the given number of times, to see how cost grows with page size.
+ * With the glyph cache on, every copy after the first, and every iteration after the first, is mostly cache hits.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PageScalingBenchmark {
+	@Param({ "1", "4", "16", "64" })
+	public int repeats;
+
+	@Param({ "0", "4096" })
+	public String glyphCacheSize;
+
+	private TextRecognizer recognizer;
+	private BufferedImage page;
+
+	@Setup
+	public void setup() {
+		recognizer = new TextRecognizer(Fixtures.model("glyphCacheSize", glyphCacheSize));
+		page = Fixtures.page(Fixtures.read("stress.jpg"), repeats);
+	}
+
+	@Benchmark
+	public List<Line> getLines() {
+		return recognizer.getLines(page);
+	}
+
+	@Benchmark
+	public StringBuffer recognize() throws IOException {
+		return recognizer.recognize(page);
+	}
+}
@@ -0,0 +1,50 @@
+package com.venky.ocr.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.venky.ocr.TextRecognizer;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecognitionBenchmark {
+	@Param({ "f.jpg", "Uu.jpg", "Xdot.jpg", "nru.jpg", "a-z.jpg", "beautiful.jpg", "stress.jpg", "monospace-big.jpg" })
+	public String image;
+
+	@Param({ "bicubic", "nearest" })
+	public String scalingMode;
+
+	@Param({ "0", "4096" })
+	public String glyphCacheSize;
+
+	private TextRecognizer recognizer;
+	private BufferedImage page;
+
+	@Setup
+	public void setup() throws IOException {
+		recognizer = new TextRecognizer(Fixtures.model("scalingMode", scalingMode, "glyphCacheSize", glyphCacheSize));
+		page = Fixtures.read(image);
+	}
+
+	@Benchmark
+	public StringBuffer recognize() throws IOException {
+		return recognizer.recognize(page);
+	}
+}
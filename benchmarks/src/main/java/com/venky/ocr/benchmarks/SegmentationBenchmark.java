@@ -0,0 +1,58 @@
+package com.venky.ocr.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.venky.ocr.BinaryImage;
+import com.venky.ocr.ImageUtil;
+import com.venky.ocr.TextRecognizer;
+import com.venky.ocr.TextRecognizer.Line;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SegmentationBenchmark {
+	// monospace.jpg is a symbolic link to monospace-big.jpg, which jars do not preserve.
+	@Param({ "monospace-big.jpg", "stress.jpg" })
+	public String image;
+
+	private TextRecognizer recognizer;
+	private BufferedImage page;
+
+	@Setup
+	public void setup() {
+		recognizer = new TextRecognizer();
+		page = Fixtures.read(image);
+	}
+
+	@Benchmark
+	public List<Line> getLines() {
+		return recognizer.getLines(page, 8);
+	}
+
+	@Benchmark
+	public BufferedImage threshold() {
+		return ImageUtil.threshold(page, recognizer.getMinColorThreshold());
+	}
+
+	@Benchmark
+	public BinaryImage binarize() {
+		return ImageUtil.binarize(page, recognizer.getMinColorThreshold());
+	}
+}
@@ -0,0 +1,63 @@
+package com.venky.ocr.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.venky.ocr.TextRecognizer;
+
+/**
+ * Tall encoded pages made of stress.jpg stacked the given number of times (54 rows each), read whole and in strips,
+ * to check that strip reading stays linear in the height of the page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StripBenchmark {
+	@Param({ "16", "64", "256" })
+	public int repeats;
+
+	@Param({ "png", "jpg" })
+	public String format;
+
+	private TextRecognizer recognizer;
+	private byte[] encoded;
+
+	@Setup
+	public void setup() throws IOException {
+		recognizer = new TextRecognizer();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(Fixtures.page(Fixtures.read("stress.jpg"), repeats), format, out);
+		encoded = out.toByteArray();
+	}
+
+	@Benchmark
+	public StringBuffer recognize() throws IOException {
+		return recognizer.recognize(new ByteArrayInputStream(encoded));
+	}
+
+	@Benchmark
+	public StringBuilder recognizeInStrips() throws IOException {
+		StringBuilder out = new StringBuilder();
+		recognizer.recognizeInStrips(ImageIO.createImageInputStream(new ByteArrayInputStream(encoded)), 1, 64, out);
+		return out;
+	}
+}
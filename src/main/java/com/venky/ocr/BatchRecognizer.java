@@ -0,0 +1,272 @@
+package com.venky.ocr;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import com.venky.ocr.TextRecognizer.Line;
+
+/**
+ * Recognizes many images through a pipeline of decode, segment and match stages. Each stage runs on threads of
+ * its own and hands work to the next through bounded queues, so reading and decoding images overlaps with
+ * matching glyphs. Results are returned in the order they finish; {@link Result#getIndex()} tells which source
+ * a result belongs to.
+ *
+ * The iterator returned by {@link #recognize(Iterator, int)} must be drained, as the stages block once the queues
+ * are full. If the iterator of sources itself fails, the failure is returned as a result without a source and
+ * the batch ends there.
+ */
+public class BatchRecognizer {
+	public interface ImageSource {
+		public BufferedImage read() throws IOException;
+	}
+
+	public static ImageSource source(final File file) {
+		return new ImageSource() {
+			public BufferedImage read() throws IOException {
+				return ImageIO.read(file);
+			}
+
+			public String toString() {
+				return file.toString();
+			}
+		};
+	}
+
+	/**
+	 * A source that reads the image from the stream and then closes it, as ImageIO does not.
+	 */
+	public static ImageSource source(final InputStream in) {
+		return new ImageSource() {
+			public BufferedImage read() throws IOException {
+				try {
+					return ImageIO.read(in);
+				} finally {
+					in.close();
+				}
+			}
+
+			public String toString() {
+				return "stream " + in;
+			}
+		};
+	}
+
+	public static class Result {
+		private final int index;
+		private final ImageSource source;
+		private BufferedImage image;
+		private List<Line> lines;
+		private StringBuffer text;
+		private Throwable error;
+
+		private Result(int index, ImageSource source) {
+			this.index = index;
+			this.source = source;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public ImageSource getSource() {
+			return source;
+		}
+
+		public StringBuffer getText() {
+			return text;
+		}
+
+		public Throwable getError() {
+			return error;
+		}
+
+		public boolean isSuccessful() {
+			return error == null;
+		}
+	}
+
+	private static final Result END = new Result(-1, null);
+
+	private final TextRecognizer recognizer;
+	private final int queueCapacity;
+	private final int decodeThreads;
+	private final int segmentThreads;
+	private final int matchThreads;
+
+	public BatchRecognizer(TextRecognizer recognizer) {
+		this(recognizer, 16, 1, 1, Math.max(1, Runtime.getRuntime().availableProcessors() - 2));
+	}
+
+	public BatchRecognizer(TextRecognizer recognizer, int queueCapacity, int decodeThreads, int segmentThreads,
+			int matchThreads) {
+		this.recognizer = recognizer;
+		this.queueCapacity = queueCapacity;
+		this.decodeThreads = decodeThreads;
+		this.segmentThreads = segmentThreads;
+		this.matchThreads = matchThreads;
+	}
+
+	public Iterator<Result> recognize(Iterable<? extends ImageSource> sources, int minCharWidth) {
+		return recognize(sources.iterator(), minCharWidth);
+	}
+
+	public Iterator<Result> recognize(final Iterator<? extends ImageSource> sources, final int minCharWidth) {
+		final BlockingQueue<Result> decoded = new ArrayBlockingQueue<Result>(queueCapacity);
+		final BlockingQueue<Result> segmented = new ArrayBlockingQueue<Result>(queueCapacity);
+		final BlockingQueue<Result> finished = new ArrayBlockingQueue<Result>(queueCapacity);
+		final AtomicInteger index = new AtomicInteger();
+		final AtomicBoolean failed = new AtomicBoolean();
+
+		start("ocr-decode", decodeThreads, null, decoded, segmentThreads, new Stage() {
+			public Result next(Result ignored) throws InterruptedException {
+				Result result;
+				synchronized (sources) {
+					if (failed.get()) {
+						return END;
+					}
+					try {
+						if (!sources.hasNext()) {
+							return END;
+						}
+						result = new Result(index.getAndIncrement(), sources.next());
+					} catch (Throwable e) {
+						failed.set(true);
+						result = new Result(index.getAndIncrement(), null);
+						result.error = e;
+						return result;
+					}
+				}
+				try {
+					result.image = result.source.read();
+					if (result.image == null) {
+						throw new IOException("Could not decode " + result.source);
+					}
+				} catch (Throwable e) {
+					result.error = e;
+				}
+				return result;
+			}
+		});
+		start("ocr-segment", segmentThreads, decoded, segmented, matchThreads, new Stage() {
+			public Result next(Result result) {
+				result.lines = recognizer.getLines(result.image, minCharWidth);
+				result.image = null;
+				return result;
+			}
+		});
+		start("ocr-match", matchThreads, segmented, finished, 1, new Stage() {
+			public Result next(Result result) {
+				result.text = recognizer.recognize(result.lines);
+				result.lines = null;
+				return result;
+			}
+		});
+
+		return new Iterator<Result>() {
+			private Result next = null;
+
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = finished.take();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RuntimeException(e);
+					}
+				}
+				return next != END;
+			}
+
+			public Result next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Result result = next;
+				next = null;
+				return result;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Tells each consumer that no more results follow. This must get through even when the thread is being
+	 * interrupted, or the consumers would wait forever.
+	 */
+	private static void end(BlockingQueue<Result> out, int numConsumers) {
+		boolean interrupted = false;
+		for (int c = 0; c < numConsumers;) {
+			try {
+				out.put(END);
+				c++;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private interface Stage {
+		public Result next(Result input) throws Exception;
+	}
+
+	private void start(String name, int numThreads, final BlockingQueue<Result> in, final BlockingQueue<Result> out,
+			final int numConsumers, final Stage stage) {
+		final AtomicInteger running = new AtomicInteger(numThreads);
+		for (int i = 0; i < numThreads; i++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						while (true) {
+							Result input = (in == null) ? null : in.take();
+							if (input == END) {
+								break;
+							}
+							Result output = input;
+							if (input == null || input.isSuccessful()) {
+								try {
+									output = stage.next(input);
+								} catch (InterruptedException e) {
+									throw e;
+								} catch (Throwable e) {
+									if (input == null) {
+										break; // Nothing to report it on; the first stage reports its own failures.
+									}
+									input.error = e;
+								}
+							}
+							if (output == END) {
+								break;
+							}
+							out.put(output);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						if (running.decrementAndGet() == 0) {
+							end(out, numConsumers);
+						}
+					}
+				}
+			}, name + "-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.venky.ocr;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+
+/**
+ * A black and white image packed 64 pixels to a long, one row after another. A set bit is ink (black).
+ */
+public class BinaryImage {
+	private final int width;
+	private final int height;
+	private final int wordsPerRow;
+	private final long[] bits;
+
+	public BinaryImage(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.bits = new long[wordsPerRow * height];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getWordsPerRow() {
+		return wordsPerRow;
+	}
+
+	long[] words() {
+		return bits;
+	}
+
+	public boolean isInk(int x, int y) {
+		return (bits[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	void setInk(int x, int y) {
+		bits[y * wordsPerRow + (x >>> 6)] |= (1L << x);
+	}
+
+	void clear() {
+		Arrays.fill(bits, 0L);
+	}
+
+	public boolean isRowBlank(int y, int fromX, int toX) {
+		int offset = y * wordsPerRow;
+		int firstWord = fromX >>> 6;
+		int lastWord = toX >>> 6;
+		for (int w = firstWord; w <= lastWord; w++) {
+			long word = bits[offset + w];
+			if (w == firstWord) {
+				word &= (-1L << fromX);
+			}
+			if (w == lastWord) {
+				word &= (-1L >>> (63 - (toX & 63)));
+			}
+			if (word != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean isColumnBlank(int x, int fromY, int toY) {
+		long mask = 1L << x;
+		int index = fromY * wordsPerRow + (x >>> 6);
+		for (int y = fromY; y <= toY; y++, index += wordsPerRow) {
+			if ((bits[index] & mask) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A 64 bit hash of the pixels of row y. Rows of the same width with the same pixels hash alike.
+	 */
+	public long rowHash(int y) {
+		long hash = width;
+		for (int w = 0, index = y * wordsPerRow; w < wordsPerRow; w++, index++) {
+			hash = mix(hash ^ bits[index]);
+		}
+		return hash;
+	}
+
+	static long mix(long h) {
+		h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+		h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * Number of ink pixels in each row.
+	 */
+	public int[] rowProfile() {
+		int[] profile = new int[height];
+		for (int y = 0, index = 0; y < height; y++) {
+			int ink = 0;
+			for (int w = 0; w < wordsPerRow; w++, index++) {
+				ink += Long.bitCount(bits[index]);
+			}
+			profile[y] = ink;
+		}
+		return profile;
+	}
+
+	/**
+	 * Number of ink pixels in each column between rows fromY and toY, both inclusive.
+	 */
+	public int[] columnProfile(int fromY, int toY) {
+		int[] profile = new int[width];
+		for (int y = fromY; y <= toY; y++) {
+			int offset = y * wordsPerRow;
+			for (int w = 0; w < wordsPerRow; w++) {
+				long word = bits[offset + w];
+				while (word != 0) {
+					profile[(w << 6) + Long.numberOfTrailingZeros(word)]++;
+					word &= word - 1;
+				}
+			}
+		}
+		return profile;
+	}
+
+	public BinaryImage crop(int x, int y, int w, int h) {
+		BinaryImage dst = new BinaryImage(w, h);
+		int shift = x & 63;
+		int srcWord = x >>> 6;
+		long lastMask = (w & 63) == 0 ? -1L : (-1L >>> (64 - (w & 63)));
+		for (int row = 0; row < h; row++) {
+			int srcOffset = (y + row) * wordsPerRow + srcWord;
+			int srcEnd = (y + row + 1) * wordsPerRow;
+			int dstOffset = row * dst.wordsPerRow;
+			for (int i = 0; i < dst.wordsPerRow; i++) {
+				long word = bits[srcOffset + i] >>> shift;
+				if (shift != 0 && srcOffset + i + 1 < srcEnd) {
+					word |= bits[srcOffset + i + 1] << (64 - shift);
+				}
+				dst.bits[dstOffset + i] = word;
+			}
+			dst.bits[dstOffset + dst.wordsPerRow - 1] &= lastMask;
+		}
+		return dst;
+	}
+
+	void copyRows(int fromY, BinaryImage dst, int toY, int numRows) {
+		System.arraycopy(bits, fromY * wordsPerRow, dst.bits, toY * dst.wordsPerRow, numRows * wordsPerRow);
+	}
+
+	public BufferedImage toBufferedImage() {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		draw(img);
+		return img;
+	}
+
+	/**
+	 * Draws the image, white background and black ink, into the top left corner of a TYPE_3BYTE_BGR image that is
+	 * at least as large.
+	 */
+	void draw(BufferedImage img) {
+		byte[] data = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+		int stride = img.getWidth() * 3;
+		for (int y = 0; y < height; y++) {
+			int row = y * stride;
+			Arrays.fill(data, row, row + width * 3, (byte) 0xff);
+			for (int x = 0; x < width; x++) {
+				if (isInk(x, y)) {
+					int i = row + x * 3;
+					data[i] = data[i + 1] = data[i + 2] = 0;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,560 @@
+package com.venky.ocr;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.imageio.ImageIO;
+
+import com.venky.ocr.TextRecognizer.CharacterRegion;
+import com.venky.ocr.TextRecognizer.GlyphKey;
+import com.venky.ocr.TextRecognizer.Line;
+
+/**
+ * The trained glyphs of one font. A model is immutable once built and may be shared by any number of
+ * {@link TextRecognizer}s on any number of threads. Only its caches of scaled templates and of glyphs already
+ * matched change, and they never change a result. Use {@link #get(String)} to build each font once per process.
+ * 
+ * A model can be compiled ahead of time with {@link #main(String[])} into a file that {@link #load(File)} maps
+ * straight into memory. {@link #get(String)} prefers a compiled <code>/com/venky/ocr/&lt;font&gt;.ocrm</code> 
+ * resource over training from <code>&lt;font&gt;.jpg</code>. A resource inside a jar is copied out to a temporary
+ * file once per process and mapped from there.
+ */
+public class FontModel {
+	private static final ConcurrentMap<String, FontModel> models = new ConcurrentHashMap<String, FontModel>();
+	private static final int MAGIC = 0x4f43524d; // "OCRM"
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static FontModel get(String font) {
+		FontModel model = models.get(font);
+		if (model == null) {
+			synchronized (models) {
+				model = models.get(font);
+				if (model == null) {
+					model = compiled(font);
+					if (model == null) {
+						model = new FontModel(font);
+					}
+					models.put(font, model);
+				}
+			}
+		}
+		return model;
+	}
+
+	private final String font;
+	private final Properties properties;
+	private final SortedMap<Character, CharacterRegion> trainingMap;
+	private final Histogram histogram;
+	private final GlyphIndex glyphIndex;
+	private final CharacterRegion[] templates; // Indexed by character.
+	private final ScaledTemplates[] scaledTemplates; // Indexed by character.
+	private final StripedLruCache<GlyphKey, GlyphResult> glyphCache; // Null when off.
+	private final BitSet characters;
+	private final int minCharacterWidth;
+	private final int minColorThreshold;
+	private final int normalizedGlyphWidth;
+	private final int normalizedGlyphHeight;
+	private final boolean nearestScaling;
+
+	public FontModel(String font) {
+		this(font, loadProperties(font), read("/com/venky/ocr/" + font + ".jpg"));
+	}
+
+	public FontModel(String font, Properties properties, BufferedImage trainingImage) {
+		this(font, properties, trainingImage, null, null);
+	}
+
+	/**
+	 * Sets a model up from its properties and either a training image to segment, or the glyphs and histogram of a
+	 * compiled model. Every setting is read here, whichever way the model is loaded.
+	 */
+	private FontModel(String font, Properties properties, BufferedImage trainingImage,
+			SortedMap<Character, CharacterRegion> trainingMap, Histogram histogram) {
+		this.font = font;
+		this.properties = new Properties();
+		this.properties.putAll(properties);
+		this.minCharacterWidth = intProperty("minCharacterWidth", "10");
+		this.minColorThreshold = intProperty("minColorThreshold", "127");
+		this.normalizedGlyphWidth = intProperty("normalizedGlyphWidth", "0");
+		this.normalizedGlyphHeight = intProperty("normalizedGlyphHeight", "0");
+		this.nearestScaling = isNearestScaling(getProperty("scalingMode", "bicubic"));
+
+		if (trainingMap == null) {
+			trainingMap = train(trainingImage);
+			histogram = new Histogram(trainingMap);
+		}
+		if (isNormalizingGlyphs()) {
+			for (CharacterRegion cr : trainingMap.values()) {
+				cr.normalized = scale(cr.bitmap(), getNormalizedGlyphWidth(), getNormalizedGlyphHeight());
+			}
+		}
+		this.trainingMap = Collections.unmodifiableSortedMap(trainingMap);
+		this.histogram = histogram;
+		this.glyphIndex = new GlyphIndex(trainingMap);
+		this.templates = new CharacterRegion[trainingMap.lastKey().charValue() + 1];
+		this.characters = new BitSet();
+		for (Map.Entry<Character, CharacterRegion> entry : trainingMap.entrySet()) {
+			templates[entry.getKey().charValue()] = entry.getValue();
+			characters.set(entry.getKey().charValue());
+		}
+		this.scaledTemplates = scaledTemplates(templates, getTemplateCacheSize());
+		this.glyphCache = (getGlyphCacheSize() > 0) ? new StripedLruCache<GlyphKey, GlyphResult>(getGlyphCacheSize()) : null;
+	}
+
+	/**
+	 * Segments the training image into one glyph per character, from '!' on.
+	 */
+	private SortedMap<Character, CharacterRegion> train(BufferedImage trainingImage) {
+		List<Line> lines = TextRecognizer.getLines(ImageUtil.binarize(trainingImage, getMinColorThreshold()),
+				trainingImage, getMinCharacterWidth());
+		assert (lines.size() >= 1);
+		String trainingCharacters = getLimitedTrainingCharacters();
+		SortedMap<Character, CharacterRegion> trainingMap = new TreeMap<Character, CharacterRegion>();
+		int c = 33;
+		for (Line line : lines) {
+			for (CharacterRegion cr : line.characterImages) {
+				if (trainingCharacters == null || trainingCharacters.indexOf(c) >= 0) {
+					trainingMap.put(((char) c), cr);
+				}
+				c++;
+			}
+		}
+		assert trainingMap.size() == (126 - 33 + 1);
+		return trainingMap;
+	}
+
+	public String getFont() {
+		return font;
+	}
+
+	public String getProperty(String name, String defaultValue) {
+		return properties.getProperty(name, defaultValue);
+	}
+
+	public SortedMap<Character, CharacterRegion> getTrainingMap() {
+		return trainingMap;
+	}
+
+	public Histogram getHistogram() {
+		return histogram;
+	}
+
+	private int intProperty(String name, String defaultValue) {
+		return Integer.valueOf(getProperty(name, defaultValue)).intValue();
+	}
+
+	public int getMinCharacterWidth() {
+		return minCharacterWidth;
+	}
+
+	public String getLimitedTrainingCharacters() {
+		return getProperty("limitedTrainingCharacters", null);
+	}
+
+	public int getMinColorThreshold() {
+		return minColorThreshold;
+	}
+
+	/**
+	 * How many scaled templates are kept, shared out evenly between the characters. 0 turns the cache off.
+	 */
+	public int getTemplateCacheSize() {
+		return intProperty("templateCacheSize", "1024");
+	}
+
+	/**
+	 * How many recognized glyph bitmaps the model remembers the result of, for all of its recognizers, so that a
+	 * glyph that repeats one is not matched again. 0 turns the cache off.
+	 */
+	public int getGlyphCacheSize() {
+		return intProperty("glyphCacheSize", "4096");
+	}
+
+	/**
+	 * How many of the templates nearest to a glyph by cheap features get a full pixel comparison. 0 compares all
+	 * templates that fit the glyph's position in its line.
+	 */
+	public int getCandidateLimit() {
+		return intProperty("candidateLimit", "0");
+	}
+
+	GlyphIndex getGlyphIndex() {
+		return glyphIndex;
+	}
+
+	CharacterRegion getTemplate(char key) {
+		return templates[key];
+	}
+
+	/**
+	 * The trained characters. Callers must not modify it.
+	 */
+	BitSet getCharacters() {
+		return characters;
+	}
+
+	public int getNormalizedGlyphWidth() {
+		return normalizedGlyphWidth;
+	}
+
+	public int getNormalizedGlyphHeight() {
+		return normalizedGlyphHeight;
+	}
+
+	private static boolean isNearestScaling(String scalingMode) {
+		if ("nearest".equals(scalingMode)) {
+			return true;
+		} else if ("bicubic".equals(scalingMode)) {
+			return false;
+		}
+		throw new IllegalArgumentException("Unknown scalingMode " + scalingMode + ", expected bicubic or nearest");
+	}
+
+	/**
+	 * Whether glyphs are scaled by nearest neighbour resampling of their bitmaps (scalingMode=nearest) rather than
+	 * by the stepped bicubic scaling of ImageUtil followed by thresholding (scalingMode=bicubic, the default).
+	 */
+	public boolean isNearestScaling() {
+		return nearestScaling;
+	}
+
+	BinaryImage scale(BinaryImage src, int targetW, int targetH) {
+		if (isNearestScaling()) {
+			return ImageUtil.resample(src, targetW, targetH);
+		}
+		return ImageUtil.scale(src, targetW, targetH, getMinColorThreshold());
+	}
+
+	public boolean isNormalizingGlyphs() {
+		return getNormalizedGlyphWidth() > 0 && getNormalizedGlyphHeight() > 0;
+	}
+
+	/**
+	 * Results of the glyphs already matched against this model, shared by all of its recognizers. Null when
+	 * glyphCacheSize is 0.
+	 */
+	StripedLruCache<GlyphKey, GlyphResult> getGlyphCache() {
+		return glyphCache;
+	}
+
+	public BinaryImage getNormalizedTemplate(char key) {
+		return templates[key].normalized;
+	}
+
+	public BinaryImage getScaledTemplate(char key, int targetW, int targetH) {
+		ScaledTemplates cache = scaledTemplates[key];
+		int size = (targetW << 16) | targetH;
+		BinaryImage scaled = cache.get(size);
+		if (scaled == null) {
+			scaled = scale(templates[key].bitmap(), targetW, targetH);
+			cache.put(size, scaled);
+		}
+		return scaled;
+	}
+
+	/**
+	 * Shares templateCacheSize out between the templates.
+	 */
+	private static ScaledTemplates[] scaledTemplates(CharacterRegion[] templates, int cacheSize) {
+		int numTemplates = 0;
+		for (CharacterRegion template : templates) {
+			if (template != null) {
+				numTemplates++;
+			}
+		}
+		int sizes = (cacheSize <= 0) ? 0 : Math.max(1, (cacheSize + numTemplates - 1) / numTemplates);
+		ScaledTemplates[] scaledTemplates = new ScaledTemplates[templates.length];
+		for (int key = 0; key < templates.length; key++) {
+			if (templates[key] != null) {
+				scaledTemplates[key] = new ScaledTemplates(sizes);
+			}
+		}
+		return scaledTemplates;
+	}
+
+	/**
+	 * The last few sizes one template was scaled to, most recently used first. Most templates are only ever
+	 * scaled to a handful of sizes. Each template has its own, so threads scaling different templates do not wait
+	 * on each other.
+	 */
+	private static class ScaledTemplates {
+		private final int[] sizes; // (width << 16) | height
+		private final BinaryImage[] images;
+		private int count = 0;
+
+		private ScaledTemplates(int capacity) {
+			this.sizes = new int[capacity];
+			this.images = new BinaryImage[capacity];
+		}
+
+		private synchronized BinaryImage get(int size) {
+			for (int i = 0; i < count; i++) {
+				if (sizes[i] == size) {
+					BinaryImage image = images[i];
+					moveToFront(i, size, image);
+					return image;
+				}
+			}
+			return null;
+		}
+
+		private synchronized void put(int size, BinaryImage image) {
+			for (int i = 0; i < count; i++) {
+				if (sizes[i] == size) {
+					return;
+				}
+			}
+			if (sizes.length > 0) {
+				moveToFront(count < sizes.length ? count++ : count - 1, size, image);
+			}
+		}
+
+		private void moveToFront(int i, int size, BinaryImage image) {
+			System.arraycopy(sizes, 0, sizes, 1, i);
+			System.arraycopy(images, 0, images, 1, i);
+			sizes[0] = size;
+			images[0] = image;
+		}
+	}
+
+	public void write(OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		writeString(out, font);
+		out.writeInt(properties.size());
+		for (String name : properties.stringPropertyNames()) {
+			writeString(out, name);
+			writeString(out, properties.getProperty(name));
+		}
+
+		List<Line> lines = new ArrayList<Line>();
+		for (CharacterRegion cr : trainingMap.values()) {
+			if (!lines.contains(cr.line)) {
+				lines.add(cr.line);
+			}
+		}
+		out.writeInt(lines.size());
+		for (Line line : lines) {
+			out.writeInt(line.lineNumber);
+			out.writeInt(line.startRow);
+			out.writeInt(line.endRow);
+			out.writeInt(line.startColumn);
+			out.writeInt(line.endColumn);
+		}
+
+		out.writeInt(trainingMap.size());
+		for (Character c : trainingMap.keySet()) {
+			CharacterRegion cr = trainingMap.get(c);
+			out.writeChar(c.charValue());
+			out.writeInt(lines.indexOf(cr.line));
+			out.writeInt(cr.startRow);
+			out.writeInt(cr.endRow);
+			out.writeInt(cr.startColumn);
+			out.writeInt(cr.endColumn);
+			long[] words = cr.bitmap().words();
+			out.writeInt(words.length);
+			for (long word : words) {
+				out.writeLong(word);
+			}
+		}
+
+		writeBands(out, histogram.getTrainingCharactersByHeight());
+		writeBands(out, histogram.getTrainingCharactersByWidth());
+		out.flush();
+	}
+
+	public void write(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static FontModel load(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	public static FontModel read(ByteBuffer in) throws IOException {
+		if (in.getInt() != MAGIC) {
+			throw new IOException("Not a compiled font model");
+		}
+		int version = in.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported font model version " + version);
+		}
+		String font = readString(in);
+		Properties properties = new Properties();
+		for (int i = in.getInt(); i > 0; i--) {
+			String name = readString(in);
+			properties.setProperty(name, readString(in));
+		}
+
+		Line[] lines = new Line[in.getInt()];
+		for (int i = 0; i < lines.length; i++) {
+			Line line = new Line();
+			line.lineNumber = in.getInt();
+			line.startRow = in.getInt();
+			line.endRow = in.getInt();
+			line.startColumn = in.getInt();
+			line.endColumn = in.getInt();
+			lines[i] = line;
+		}
+
+		SortedMap<Character, CharacterRegion> trainingMap = new TreeMap<Character, CharacterRegion>();
+		for (int i = in.getInt(); i > 0; i--) {
+			char c = in.getChar();
+			CharacterRegion cr = new CharacterRegion();
+			cr.line = lines[in.getInt()];
+			cr.startRow = in.getInt();
+			cr.endRow = in.getInt();
+			cr.startColumn = in.getInt();
+			cr.endColumn = in.getInt();
+			BinaryImage bitmap = new BinaryImage(cr.width(), cr.height());
+			long[] words = bitmap.words();
+			int numWords = in.getInt();
+			if (numWords != words.length) {
+				throw new IOException("Corrupt bitmap for " + c);
+			}
+			for (int w = 0; w < numWords; w++) {
+				words[w] = in.getLong();
+			}
+			cr.bitmap = bitmap;
+			cr.line.characterImages.push(cr);
+			trainingMap.put(c, cr);
+		}
+
+		Histogram histogram = new Histogram(readBands(in), readBands(in));
+		return new FontModel(font, properties, null, trainingMap, histogram);
+	}
+
+	private static FontModel compiled(String font) {
+		URL url = FontModel.class.getResource("/com/venky/ocr/" + font + ".ocrm");
+		return (url == null) ? null : compiled(url);
+	}
+
+	/**
+	 * Loads the compiled model at the URL. A model that is not a file of its own, such as one packed in a jar, is
+	 * first copied out to a temporary file so that it is memory mapped all the same.
+	 */
+	static FontModel compiled(URL url) {
+		try {
+			if ("file".equals(url.getProtocol())) {
+				return load(new File(url.toURI()));
+			}
+			File file = File.createTempFile("font", ".ocrm");
+			file.deleteOnExit();
+			InputStream in = url.openStream();
+			try {
+				Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				in.close();
+			}
+			return load(file);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void writeBands(DataOutputStream out, SortedMap<Integer, List<Character>> bands) throws IOException {
+		out.writeInt(bands.size());
+		for (Map.Entry<Integer, List<Character>> band : bands.entrySet()) {
+			out.writeInt(band.getKey());
+			out.writeInt(band.getValue().size());
+			for (Character c : band.getValue()) {
+				out.writeChar(c.charValue());
+			}
+		}
+	}
+
+	private static SortedMap<Integer, List<Character>> readBands(ByteBuffer in) {
+		SortedMap<Integer, List<Character>> bands = new TreeMap<Integer, List<Character>>();
+		for (int i = in.getInt(); i > 0; i--) {
+			int key = in.getInt();
+			List<Character> characters = new ArrayList<Character>();
+			for (int j = in.getInt(); j > 0; j--) {
+				characters.add(in.getChar());
+			}
+			bands.put(key, characters);
+		}
+		return bands;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Compiles fonts into model files. Usage: <code>FontModel &lt;font&gt; &lt;output file&gt;</code>
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: FontModel <font> <output file>");
+			System.exit(1);
+		}
+		File out = new File(args[1]);
+		if (out.getParentFile() != null) {
+			out.getParentFile().mkdirs();
+		}
+		new FontModel(args[0]).write(out);
+	}
+
+	private static Properties loadProperties(String font) {
+		Properties properties = new Properties();
+		try {
+			properties.load(FontModel.class.getResourceAsStream("/com/venky/ocr/" + font + ".properties"));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return properties;
+	}
+
+	private static BufferedImage read(String name) {
+		InputStream in = FontModel.class.getResourceAsStream(name);
+		try {
+			return ImageIO.read(in);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.venky.ocr;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.venky.ocr.TextRecognizer.CandidateBand;
+import com.venky.ocr.TextRecognizer.Line;
+
+/**
+ * Recognizes text that may be in any of several fonts. The page is segmented once, then each line is matched
+ * against every registered font in parallel and read in the font whose glyphs fit it best.
+ *
+ * A font's fit to a line is the mean, over its glyphs, of the match distance divided by the number of pixels the
+ * glyph was compared at with that font. All fonts first match a sample of the line's glyphs. If the best font's
+ * score is then below cutoff times the runner up's, only that font matches the rest of the line. Otherwise every
+ * font matches the whole line and the best one wins. The rest of every line is matched on the executor too.
+ */
+public class FontRegistry {
+	private final List<TextRecognizer> recognizers;
+	private final int sampleGlyphs;
+	private final double cutoff;
+
+	public FontRegistry(String... fonts) {
+		this(recognizers(fonts), 8, 0.5);
+	}
+
+	public FontRegistry(List<TextRecognizer> recognizers, int sampleGlyphs, double cutoff) {
+		if (recognizers.isEmpty()) {
+			throw new IllegalArgumentException("No fonts registered");
+		}
+		this.recognizers = Collections.unmodifiableList(new ArrayList<TextRecognizer>(recognizers));
+		this.sampleGlyphs = sampleGlyphs;
+		this.cutoff = cutoff;
+	}
+
+	private static List<TextRecognizer> recognizers(String... fonts) {
+		List<TextRecognizer> recognizers = new ArrayList<TextRecognizer>();
+		for (String font : fonts) {
+			recognizers.add(new TextRecognizer(font, false));
+		}
+		return recognizers;
+	}
+
+	public List<TextRecognizer> getRecognizers() {
+		return recognizers;
+	}
+
+	public StringBuffer recognize(BufferedImage in, int minCharWidth) {
+		StringBuffer out = new StringBuffer();
+		recognize(in, minCharWidth, ForkJoinPool.commonPool(), new TextRecognizer.TextWriter(out));
+		return out;
+	}
+
+	/**
+	 * Recognizes the image, handing the results of each line to the listener in the font chosen for that line.
+	 * The page is segmented with the settings of the first registered font.
+	 *
+	 * @return the name of the font chosen for each line, in page order.
+	 */
+	public List<String> recognize(BufferedImage in, int minCharWidth, Executor executor, RecognitionListener listener) {
+		List<Line> lines = recognizers.get(0).getLines(in, minCharWidth);
+		List<List<Future<Match>>> samples = new ArrayList<List<Future<Match>>>();
+		for (Line line : lines) {
+			List<Future<Match>> lineSamples = new ArrayList<Future<Match>>();
+			for (TextRecognizer recognizer : recognizers) {
+				lineSamples.add(TextRecognizer.submit(executor, new Sample(recognizer, line)));
+			}
+			samples.add(lineSamples);
+		}
+
+		List<List<Future<Match>>> rests = new ArrayList<List<Future<Match>>>();
+		for (int l = 0; l < lines.size(); l++) {
+			List<Match> matches = new ArrayList<Match>();
+			for (Future<Match> sample : samples.get(l)) {
+				matches.add(TextRecognizer.get(sample));
+			}
+			Match best = best(matches);
+			if (isClearWinner(best, matches)) {
+				matches = Collections.singletonList(best);
+			}
+			List<Future<Match>> lineRests = new ArrayList<Future<Match>>();
+			for (Match match : matches) {
+				lineRests.add(TextRecognizer.submit(executor, new Rest(match)));
+			}
+			rests.add(lineRests);
+		}
+
+		List<String> fonts = new ArrayList<String>();
+		for (int l = 0; l < lines.size(); l++) {
+			List<Match> matches = new ArrayList<Match>();
+			for (Future<Match> rest : rests.get(l)) {
+				matches.add(TextRecognizer.get(rest));
+			}
+			Match best = best(matches);
+			best.recognizer.recognized(lines.get(l), best.glyphs, listener);
+			fonts.add(best.recognizer.getModel().getFont());
+		}
+		return fonts;
+	}
+
+	private Match best(List<Match> matches) {
+		Match best = null;
+		for (Match match : matches) {
+			if (best == null || match.score() < best.score()) {
+				best = match;
+			}
+		}
+		return best;
+	}
+
+	private boolean isClearWinner(Match best, List<Match> matches) {
+		for (Match match : matches) {
+			if (match != best && best.score() >= cutoff * match.score()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static class Match {
+		private final TextRecognizer recognizer;
+		private final Line line;
+		private final CandidateBand band;
+		private final List<GlyphResult> glyphs;
+		private double error = 0;
+		private int scored = 0;
+
+		private Match(TextRecognizer recognizer, Line line, CandidateBand band, List<GlyphResult> glyphs) {
+			this.recognizer = recognizer;
+			this.line = line;
+			this.band = band;
+			this.glyphs = glyphs;
+			for (GlyphResult glyph : glyphs) {
+				add(glyph);
+			}
+		}
+
+		private void add(GlyphResult glyph) {
+			if (glyph != null) {
+				error += Math.min(1.0, glyph.getDistance() / recognizer.getComparedArea(glyph));
+				scored++;
+			}
+		}
+
+		private boolean isComplete() {
+			return glyphs.size() == line.characterImages.size();
+		}
+
+		private double score() {
+			return scored == 0 ? 1.0 : error / scored;
+		}
+	}
+
+	private class Sample implements Callable<Match> {
+		private final TextRecognizer recognizer;
+		private final Line line;
+
+		private Sample(TextRecognizer recognizer, Line line) {
+			this.recognizer = recognizer;
+			this.line = line;
+		}
+
+		public Match call() {
+			CandidateBand band = recognizer.getCandidateBand(line);
+			int to = Math.min(sampleGlyphs, line.characterImages.size());
+			return new Match(recognizer, line, band, recognizer.recognize(line, band, 0, to));
+		}
+	}
+
+	private static class Rest implements Callable<Match> {
+		private final Match match;
+
+		private Rest(Match match) {
+			this.match = match;
+		}
+
+		public Match call() {
+			if (match.isComplete()) {
+				return match;
+			}
+			List<GlyphResult> glyphs = new ArrayList<GlyphResult>(match.glyphs);
+			glyphs.addAll(match.recognizer.recognize(match.line, match.band, glyphs.size(), match.line.characterImages.size()));
+			return new Match(match.recognizer, match.line, match.band, glyphs);
+		}
+	}
+}
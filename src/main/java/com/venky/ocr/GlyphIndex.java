@@ -0,0 +1,187 @@
+package com.venky.ocr;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+import com.venky.ocr.TextRecognizer.CharacterRegion;
+
+/**
+ * Cheap features of the training glyphs of a model, used to pick which templates are worth a full pixel
+ * comparison.
+ *
+ * Position in the line is exact: a glyph that starts near the top of its line is never compared with a template
+ * that starts near the floor of its line, and the same for where they end. Templates are grouped by position
+ * up front so incompatible ones are skipped without looking at them. The remaining features (aspect ratio, ink
+ * density, ink per zone of a 3x3 grid and 4 bin row and column projections) only rank templates, and are used to
+ * keep the nearest few when a candidate limit is set.
+ */
+class GlyphIndex {
+	private static final int ZONES = 3;
+	private static final int BINS = 4;
+	private static final int NUM_FEATURES = 2 + ZONES * ZONES + 2 * BINS;
+
+	private final float[][] features; // Indexed by character.
+	private final BitSet[] positionCompatible; // Indexed by position.
+
+	GlyphIndex(Map<Character, CharacterRegion> trainingMap) {
+		int size = 0;
+		for (Character key : trainingMap.keySet()) {
+			size = Math.max(size, key.charValue() + 1);
+		}
+		this.features = new float[size][];
+		this.positionCompatible = new BitSet[9];
+		for (int p = 0; p < positionCompatible.length; p++) {
+			positionCompatible[p] = new BitSet();
+		}
+		for (Map.Entry<Character, CharacterRegion> entry : trainingMap.entrySet()) {
+			char key = entry.getKey().charValue();
+			CharacterRegion template = entry.getValue();
+			features[key] = features(template);
+			int position = position(template);
+			for (int p = 0; p < positionCompatible.length; p++) {
+				if (isPositionCompatible(position, p)) {
+					positionCompatible[p].set(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Where the region starts and ends in its line, as -1 (near the top), 0 (middle) or 1 (near the floor) each,
+	 * packed into one number from 0 to 8.
+	 */
+	static int position(CharacterRegion r) {
+		int start = Integer.signum((r.startRow - r.line.startRow) - (r.line.endRow - r.startRow));
+		int end = Integer.signum((r.endRow - r.line.startRow) - (r.line.endRow - r.endRow));
+		return (start + 1) * 3 + (end + 1);
+	}
+
+	private static boolean isPositionCompatible(int p1, int p2) {
+		int start = (p1 / 3 - 1) * (p2 / 3 - 1);
+		int end = (p1 % 3 - 1) * (p2 % 3 - 1);
+		return start >= 0 && end >= 0;
+	}
+
+	/**
+	 * Removes the templates that may not appear at the position of the region in its line from candidates.
+	 */
+	void retainCompatible(CharacterRegion region, BitSet candidates) {
+		candidates.and(positionCompatible[position(region)]);
+	}
+
+	Scratch newScratch() {
+		return new Scratch(features.length);
+	}
+
+	/**
+	 * Removes all but the limit templates whose features are nearest to those of the region from candidates. A
+	 * limit of 0 or less keeps all of them. Ties go to the lower character.
+	 */
+	void retainNearest(CharacterRegion region, BitSet candidates, int limit, Scratch scratch) {
+		int size = candidates.cardinality();
+		if (limit <= 0 || size <= limit) {
+			return;
+		}
+		float[] f = scratch.features(region);
+		long[] ranked = scratch.ranked;
+		int n = 0;
+		for (int key = candidates.nextSetBit(0); key >= 0; key = candidates.nextSetBit(key + 1)) {
+			// Distances are never negative, so their bits sort in the same order as they do.
+			ranked[n++] = ((long) Float.floatToIntBits(distance(f, features[key])) << 32) | key;
+		}
+		Arrays.sort(ranked, 0, n);
+		candidates.clear();
+		for (int k = 0; k < limit; k++) {
+			candidates.set((int) ranked[k]);
+		}
+	}
+
+	private static float distance(float[] f1, float[] f2) {
+		float d = 0;
+		for (int i = 0; i < f1.length; i++) {
+			d += Math.abs(f1[i] - f2[i]);
+		}
+		return d;
+	}
+
+	static float[] features(CharacterRegion region) {
+		float[] f = new float[NUM_FEATURES];
+		features(region, f);
+		return f;
+	}
+
+	/**
+	 * Fills f with the features of the region, counting ink into every zone and bin in one pass over the bitmap.
+	 */
+	private static void features(CharacterRegion region, float[] f) {
+		BinaryImage bitmap = region.bitmap();
+		int w = bitmap.getWidth();
+		int h = bitmap.getHeight();
+		int zones = 2; // Where the zone features start in f, then the row bins and the column bins.
+		int rowBins = zones + ZONES * ZONES;
+		int columnBins = rowBins + BINS;
+		Arrays.fill(f, 0);
+		int ink = 0;
+		for (int y = 0; y < h; y++) {
+			int zy = bin(y, h, ZONES);
+			int by = bin(y, h, BINS);
+			for (int x = 0; x < w; x++) {
+				if (bitmap.isInk(x, y)) {
+					ink++;
+					f[zones + zy * ZONES + bin(x, w, ZONES)]++;
+					f[rowBins + by]++;
+					f[columnBins + bin(x, w, BINS)]++;
+				}
+			}
+		}
+		f[0] = (float) w / (w + h);
+		f[1] = (float) ink / (w * h);
+		for (int zy = 0; zy < ZONES; zy++) {
+			for (int zx = 0; zx < ZONES; zx++) {
+				f[zones + zy * ZONES + zx] /= area(zx * w / ZONES, zy * h / ZONES, (zx + 1) * w / ZONES, (zy + 1) * h / ZONES);
+			}
+		}
+		for (int b = 0; b < BINS; b++) {
+			f[rowBins + b] /= area(0, b * h / BINS, w, (b + 1) * h / BINS);
+			f[columnBins + b] /= area(b * w / BINS, 0, (b + 1) * w / BINS, h);
+		}
+	}
+
+	/**
+	 * Which of n parts of 0 to size - 1 holds i, part k starting at k * size / n.
+	 */
+	private static int bin(int i, int size, int n) {
+		return ((i + 1) * n - 1) / size;
+	}
+
+	/**
+	 * Area of the rectangle from (x1, y1) up to but not including (x2, y2), or 1 if it is empty so that its
+	 * density comes out as 0.
+	 */
+	private static int area(int x1, int y1, int x2, int y2) {
+		return (x2 <= x1 || y2 <= y1) ? 1 : (x2 - x1) * (y2 - y1);
+	}
+
+	/**
+	 * Working memory of retainNearest for one thread: the features of the region last asked about, and room to
+	 * rank every template.
+	 */
+	static class Scratch {
+		private final float[] features = new float[NUM_FEATURES];
+		private final long[] ranked;
+		private CharacterRegion region = null;
+
+		private Scratch(int size) {
+			this.ranked = new long[size];
+		}
+
+		private float[] features(CharacterRegion region) {
+			if (this.region != region) {
+				GlyphIndex.features(region, features);
+				this.region = region;
+			}
+			return features;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.venky.ocr;
+
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * What one glyph of a line was recognized as. A glyph matches a single character, several equally good
+ * candidates or nothing at all. Gaps between words are reported as glyphs that are spaces.
+ */
+public class GlyphResult {
+	private static final SortedSet<Character> SPACE = Collections.unmodifiableSortedSet(new TreeSet<Character>(Collections.singleton(' ')));
+
+	private final int lineNumber;
+	private final Rectangle bounds;
+	private final SortedSet<Character> candidates;
+	private final double distance;
+	private final boolean space;
+
+	public GlyphResult(int lineNumber, Rectangle bounds, SortedSet<Character> candidates, double distance) {
+		this(lineNumber, bounds, Collections.unmodifiableSortedSet(candidates), distance, false);
+	}
+
+	/**
+	 * Takes candidates as they are; they must already be unmodifiable.
+	 */
+	private GlyphResult(int lineNumber, Rectangle bounds, SortedSet<Character> candidates, double distance,
+			boolean space) {
+		this.lineNumber = lineNumber;
+		this.bounds = bounds;
+		this.candidates = candidates;
+		this.distance = distance;
+		this.space = space;
+	}
+
+	static GlyphResult space(int lineNumber, Rectangle bounds) {
+		return new GlyphResult(lineNumber, bounds, SPACE, 0, true);
+	}
+
+	/**
+	 * The same result for another glyph with the same pixels.
+	 */
+	GlyphResult at(int lineNumber, Rectangle bounds) {
+		return new GlyphResult(lineNumber, bounds, candidates, distance, space);
+	}
+
+	/**
+	 * The same result for a glyph that has moved down by dy rows into the line with the given number.
+	 */
+	GlyphResult moveTo(int lineNumber, int dy) {
+		if (lineNumber == this.lineNumber && dy == 0) {
+			return this;
+		}
+		Rectangle moved = new Rectangle(bounds);
+		moved.translate(0, dy);
+		return new GlyphResult(lineNumber, moved, candidates, distance, space);
+	}
+
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Bounds of the glyph on the page. For a space, the gap between the glyphs on either side.
+	 */
+	public Rectangle getBounds() {
+		return new Rectangle(bounds);
+	}
+
+	/**
+	 * Every character that matched equally well, in character order.
+	 */
+	public SortedSet<Character> getCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * The character recognized, or 0 when there are no or several candidates.
+	 */
+	public char getCharacter() {
+		return candidates.size() == 1 ? candidates.first().charValue() : 0;
+	}
+
+	public double getDistance() {
+		return distance;
+	}
+
+	public boolean isSpace() {
+		return space;
+	}
+
+	public boolean isAmbiguous() {
+		return candidates.size() > 1;
+	}
+
+	/**
+	 * The text the StringBuffer returning recognize methods write for this glyph.
+	 */
+	public String toString() {
+		if (candidates.isEmpty()) {
+			return "";
+		} else if (candidates.size() == 1) {
+			return String.valueOf(candidates.first());
+		} else if (candidates.size() < 7) {
+			return candidates.toString();
+		} else {
+			return "_";
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.venky.ocr;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales glyph bitmaps exactly as {@link ImageUtil#scale(BinaryImage, int, int, int)} does, but on rasters that
+ * are kept from one call to the next and only grow. When nearest, bitmaps are resampled with
+ * {@link ImageUtil#resample(BinaryImage, int, int)} instead. Not thread safe; each thread gets its own from
+ * {@link #get(boolean)}, shared by every recognizer the thread runs.
+ */
+class GlyphScaler {
+	private static final ThreadLocal<GlyphScaler[]> scalers = new ThreadLocal<GlyphScaler[]>() {
+		@Override
+		protected GlyphScaler[] initialValue() {
+			return new GlyphScaler[] { new GlyphScaler(false), new GlyphScaler(true) };
+		}
+	};
+
+	private final boolean nearest;
+	private BufferedImage source = null;
+	private final BufferedImage[] steps = new BufferedImage[2];
+
+	GlyphScaler(boolean nearest) {
+		this.nearest = nearest;
+	}
+
+	/**
+	 * The calling thread's scaler for the scaling mode.
+	 */
+	static GlyphScaler get(boolean nearest) {
+		return scalers.get()[nearest ? 1 : 0];
+	}
+
+	/**
+	 * Scales src to targetW x targetH, writing the result into reuse if it has that size.
+	 */
+	BinaryImage scale(BinaryImage src, int targetW, int targetH, int minThreshold, BinaryImage reuse) {
+		if (nearest) {
+			return ImageUtil.resample(src, targetW, targetH, reuse);
+		}
+		int w = src.getWidth();
+		int h = src.getHeight();
+		if (source == null || source.getWidth() < w || source.getHeight() < h) {
+			int sourceW = (source == null) ? w : Math.max(w, source.getWidth());
+			int sourceH = (source == null) ? h : Math.max(h, source.getHeight());
+			source = new BufferedImage(sourceW, sourceH, BufferedImage.TYPE_3BYTE_BGR);
+		}
+		src.draw(source);
+		BufferedImage scaled = ImageUtil.scale(source.getSubimage(0, 0, w, h), targetW, targetH, steps);
+		return ImageUtil.binarize(scaled, minThreshold, reuse);
+	}
+}
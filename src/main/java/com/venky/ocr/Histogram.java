@@ -1,7 +1,9 @@
 package com.venky.ocr;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
@@ -9,9 +11,16 @@ import java.util.TreeMap;
 
 import com.venky.ocr.TextRecognizer.CharacterRegion;
 
+/**
+ * Training characters grouped by height and by width. Besides the sorted maps, each group is kept as a bit set of
+ * characters in an array indexed by pixel size, so candidate sets can be built without allocating.
+ */
 public class Histogram {
-	private SortedMap<Integer, List<Character>> heightClassification = new TreeMap<Integer, List<Character>>(); 
+	private SortedMap<Integer, List<Character>> heightClassification = new TreeMap<Integer, List<Character>>();
 	private SortedMap<Integer, List<Character>> widthClassification = new TreeMap<Integer, List<Character>>();
+	private Bands heights;
+	private Bands widths;
+
 	public Histogram(Map<Character,CharacterRegion> trainingMap){
 		for (Character c: trainingMap.keySet()){
 			CharacterRegion reg = trainingMap.get(c);
@@ -28,50 +37,152 @@ public class Histogram {
 			sameHeightCharacters.add(c);
 			sameWidthCharacters.add(c);
 		}
+		index();
+	}
+	Histogram(SortedMap<Integer, List<Character>> heightClassification, SortedMap<Integer, List<Character>> widthClassification){
+		this.heightClassification.putAll(heightClassification);
+		this.widthClassification.putAll(widthClassification);
+		index();
+	}
+	private void index(){
+		heights = new Bands(heightClassification);
+		widths = new Bands(widthClassification);
+		heightClassification = Collections.unmodifiableSortedMap(heightClassification);
+		widthClassification = Collections.unmodifiableSortedMap(widthClassification);
 	}
 	public void printHeightDistribution(){
 		for (Integer height:heightClassification.keySet()){
 			System.out.println(height +":" + heightClassification.get(height));
 		}
 	}
-	public void printWidthDistribution(){		
+	public void printWidthDistribution(){
 		for (Integer width:widthClassification.keySet()){
 			System.out.println(width +":" + widthClassification.get(width));
 		}
 	}
-	
+
 	public SortedMap<Integer, List<Character>> getTrainingCharactersByHeight(){
 		return heightClassification;
 	}
-	
+
 	public SortedMap<Integer, List<Character>> getTrainingCharactersByWidth(){
 		return widthClassification;
 	}
-	
+
 	public Collection<Character> getCharactersTallerThan(int height, int numBands){
-		int numBandsRet = 0 ;
-		List<Character> taller = new ArrayList<Character>();
-		for (int h : heightClassification.tailMap(height+1).keySet() ){
-			taller.addAll(heightClassification.get(h));
-			numBandsRet ++ ;
-			if (numBandsRet >= numBands){
-				break;
-			}
-		}
-		return taller;
+		BitSet taller = new BitSet();
+		addCharactersTallerThan(height, numBands, taller);
+		return toList(taller);
 	}
 
 	public Collection<Character> getCharactersThickerThan(int width, int numBands){
-		List<Character> thicker = new ArrayList<Character>();
-		int numBandsRet = 0 ;
-		for (int w : widthClassification.tailMap(width+1).keySet() ){
-			thicker.addAll(widthClassification.get(w));
-			numBandsRet ++ ;
-			if (numBandsRet >= numBands){
-				break;
+		BitSet thicker = new BitSet();
+		widths.addLargerThan(width, numBands, thicker);
+		return toList(thicker);
+	}
+
+	private static List<Character> toList(BitSet characters){
+		List<Character> list = new ArrayList<Character>(characters.cardinality());
+		for (int c = characters.nextSetBit(0) ; c >= 0 ; c = characters.nextSetBit(c + 1)){
+			list.add((char)c);
+		}
+		return list;
+	}
+
+	public int getMinHeight(){
+		return heights.min();
+	}
+
+	public int getMaxHeight(){
+		return heights.max();
+	}
+
+	public int getMinWidth(){
+		return widths.min();
+	}
+
+	public int getMaxWidth(){
+		return widths.max();
+	}
+
+	/**
+	 * The smallest training height that is at least height, or -1 if every training character is shorter.
+	 */
+	public int ceilingHeight(int height){
+		return heights.ceiling(height);
+	}
+
+	/**
+	 * Adds the characters whose height is between fromHeight and toHeight, both inclusive, to characters.
+	 */
+	public void addCharactersOfHeight(int fromHeight, int toHeight, BitSet characters){
+		heights.add(fromHeight, toHeight, characters);
+	}
+
+	/**
+	 * Adds the characters of the first numBands heights above height to characters.
+	 */
+	public void addCharactersTallerThan(int height, int numBands, BitSet characters){
+		heights.addLargerThan(height, numBands, characters);
+	}
+
+	private static class Bands {
+		private final int[] sizes; // Distinct sizes in ascending order.
+		private final BitSet[] characters; // Characters of each size in sizes.
+		private final int[] ceiling; // Index into sizes of the smallest size at least as large as the index.
+
+		Bands(SortedMap<Integer, List<Character>> classification){
+			sizes = new int[classification.size()];
+			characters = new BitSet[sizes.length];
+			int i = 0 ;
+			for (Map.Entry<Integer, List<Character>> band : classification.entrySet()){
+				sizes[i] = band.getKey();
+				characters[i] = new BitSet();
+				for (Character c : band.getValue()){
+					characters[i].set(c);
+				}
+				i++;
+			}
+			ceiling = new int[max() + 1];
+			for (int size = 0, s = 0 ; size < ceiling.length ; size ++){
+				while (sizes[s] < size){
+					s++;
+				}
+				ceiling[size] = s;
+			}
+		}
+
+		int min(){
+			return sizes[0];
+		}
+
+		int max(){
+			return sizes[sizes.length - 1];
+		}
+
+		private int ceilingIndex(int size){
+			if (size < 0){
+				return 0;
+			}
+			return size < ceiling.length ? ceiling[size] : sizes.length;
+		}
+
+		int ceiling(int size){
+			int i = ceilingIndex(size);
+			return i < sizes.length ? sizes[i] : -1;
+		}
+
+		void add(int from, int to, BitSet into){
+			for (int i = ceilingIndex(from) ; i < sizes.length && sizes[i] <= to ; i ++){
+				into.or(characters[i]);
+			}
+		}
+
+		void addLargerThan(int size, int numBands, BitSet into){
+			int from = (size == Integer.MAX_VALUE) ? sizes.length : ceilingIndex(size + 1);
+			for (int i = from ; i < sizes.length && i < from + Math.max(1, numBands) ; i ++){
+				into.or(characters[i]);
 			}
 		}
-		return thicker;
 	}
-	
 }
@@ -1,13 +1,25 @@
 package com.venky.ocr;
 
+import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.RenderingHints.Key;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
 import java.awt.image.ConvolveOp;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
 import java.awt.image.Kernel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class ImageUtil {
 	public static boolean isLineBlank(BufferedImage img, int y,int fromX,int toX){
@@ -80,6 +92,15 @@ public class ImageUtil {
 		return tmp;
 	}
 	public static BufferedImage scale(BufferedImage src,int targetW, int targetH){
+		return scale(src, targetW, targetH, null);
+	}
+	
+	/**
+	 * Scales as {@link #scale(BufferedImage, int, int)} does, but draws each step into the top left corner of one 
+	 * of two reusable buffers, which are replaced when too small. The result is a view into one of the buffers. 
+	 * With null buffers every step is drawn into a new image.
+	 */
+	static BufferedImage scale(BufferedImage src,int targetW, int targetH, BufferedImage[] buffers){
 		
 		int origW = src.getWidth(); 
 		int origH = src.getHeight();
@@ -90,6 +111,7 @@ public class ImageUtil {
 		
 		int w = origW ;
 		int h = origH; 
+		int step = 0;
 		do {
 			if (w > targetW){
 				w = (int)(w * stepDownScale);
@@ -116,8 +138,12 @@ public class ImageUtil {
 				}
 			}
 			
-			BufferedImage tmp = new BufferedImage(w, h,dst.getType());
+			BufferedImage tmp = buffer(buffers, step++ % 2, w, h, dst.getType());
 			Graphics2D g = tmp.createGraphics();
+			if (buffers != null){
+				g.setColor(Color.BLACK);
+				g.fillRect(0, 0, w, h);
+			}
 			g.setRenderingHints(defaultRenderingHints());
 			g.drawImage(dst, 0,0,w ,h,null);
 			g.dispose();
@@ -126,29 +152,336 @@ public class ImageUtil {
 		return dst;
 	}
 	
+	private static BufferedImage buffer(BufferedImage[] buffers, int i, int w, int h, int type){
+		if (buffers == null){
+			return new BufferedImage(w, h, type);
+		}
+		BufferedImage buffer = buffers[i];
+		if (buffer == null || buffer.getType() != type || buffer.getWidth() < w || buffer.getHeight() < h){
+			int bufferW = (buffer == null) ? w : Math.max(w, buffer.getWidth());
+			int bufferH = (buffer == null) ? h : Math.max(h, buffer.getHeight());
+			buffer = new BufferedImage(bufferW, bufferH, type);
+			buffers[i] = buffer;
+		}
+		return buffer.getSubimage(0, 0, w, h);
+	}
+	
+	public static BinaryImage scale(BinaryImage src, int targetW, int targetH, int minThreshold){
+		return binarize(scale(src.toBufferedImage(), targetW, targetH), minThreshold);
+	}
+	
+	/**
+	 * Nearest neighbour resampling of a binary image. Each target pixel copies the source pixel under its 
+	 * centre, so no intermediate image or thresholding is needed. 
+	 */
+	public static BinaryImage resample(BinaryImage src, int targetW, int targetH){
+		return resample(src, targetW, targetH, null);
+	}
+	
+	static BinaryImage resample(BinaryImage src, int targetW, int targetH, BinaryImage reuse){
+		BinaryImage dst = reuse;
+		if (dst == null || dst.getWidth() != targetW || dst.getHeight() != targetH){
+			dst = new BinaryImage(targetW, targetH);
+		}
+		int[] columns = resampleTable(src.getWidth(), targetW);
+		int[] rows = resampleTable(src.getHeight(), targetH);
+		long[] srcWords = src.words();
+		long[] dstWords = dst.words();
+		int srcStride = src.getWordsPerRow();
+		int dstStride = dst.getWordsPerRow();
+		for (int y = 0 ; y < targetH ; y ++){
+			int dstOffset = y * dstStride;
+			if (y > 0 && rows[y] == rows[y - 1]){
+				System.arraycopy(dstWords, dstOffset - dstStride, dstWords, dstOffset, dstStride);
+				continue;
+			}
+			int srcOffset = rows[y] * srcStride;
+			for (int w = 0 ; w < dstStride ; w ++){
+				long word = 0;
+				int end = Math.min(64, targetW - (w << 6));
+				for (int b = 0 ; b < end ; b ++){
+					int sx = columns[(w << 6) + b];
+					word |= ((srcWords[srcOffset + (sx >>> 6)] >>> sx) & 1L) << b;
+				}
+				dstWords[dstOffset + w] = word;
+			}
+		}
+		return dst;
+	}
+	
+	private static final int MAX_TABLE_LENGTH = 256;
+	private static final AtomicReferenceArray<int[]> resampleTables = new AtomicReferenceArray<int[]>(MAX_TABLE_LENGTH * MAX_TABLE_LENGTH);
+	
+	/**
+	 * Source index under the centre of each of dstLength target pixels. Tables for lengths up to 
+	 * MAX_TABLE_LENGTH are computed once and shared.
+	 */
+	private static int[] resampleTable(int srcLength, int dstLength){
+		boolean cached = srcLength < MAX_TABLE_LENGTH && dstLength < MAX_TABLE_LENGTH;
+		int key = srcLength * MAX_TABLE_LENGTH + dstLength;
+		int[] table = cached ? resampleTables.get(key) : null;
+		if (table == null){
+			table = new int[dstLength];
+			for (int i = 0 ; i < dstLength ; i ++){
+				table[i] = (int)(((2L * i + 1) * srcLength) / (2L * dstLength));
+			}
+			if (cached){
+				resampleTables.set(key, table);
+			}
+		}
+		return table;
+	}
+	
+	/**
+	 * A copy of src, of the same type, in which ink is black and everything else white.
+	 */
 	public static BufferedImage threshold(BufferedImage src ,int minThreshold){
-		BufferedImage img = copy(src);
-		for (int x = 0 ;  x < img.getWidth(); x ++ ){
-			for (int y = 0 ; y < img.getHeight() ; y ++){
-				int rgb = img.getRGB(x, y);
-				
-				//int alpha = ((rgb >> 24) & 0xff); 
-			    int red = ((rgb >> 16) & 0xff); 
-			    int green = ((rgb >> 8) & 0xff); 
-			    int blue = ((rgb ) & 0xff); 
-			    int g = (red & green & blue) ;
-			    if (g < minThreshold ){
-			    	g = 0;
-			    }else {
-			    	g = 255;
-			    }
-			    
-			    rgb =  (0 << 24) | (g << 16) | (g << 8) | g; 
-			    img.setRGB(x, y, rgb);
+		BinaryImage bits = binarize(src, minThreshold);
+		BufferedImage img = new BufferedImage(src.getColorModel(), src.getRaster().createCompatibleWritableRaster(), 
+				src.isAlphaPremultiplied(), null);
+		int w = src.getWidth();
+		int[] row = new int[w];
+		for (int y = 0 ; y < src.getHeight() ; y ++){
+			for (int x = 0 ; x < w ; x ++){
+				row[x] = bits.isInk(x, y) ? 0 : 0xffffff;
 			}
+			img.setRGB(0, y, w, 1, row, 0, w);
 		}
 		return img;
 	}
+	
+	/**
+	 * Packs src into a binary image in which a pixel is ink when the bitwise and of its red, green and blue 
+	 * components, as {@link BufferedImage#getRGB(int, int)} reports them, is below minThreshold.
+	 */
+	public static BinaryImage binarize(BufferedImage src ,int minThreshold){
+		return binarize(src, minThreshold, null);
+	}
+	/**
+	 * Binarizes src into reuse when it has the same size, and into a new image otherwise.
+	 */
+	static BinaryImage binarize(BufferedImage src ,int minThreshold, BinaryImage reuse){
+		return binarize(pixels(src), src.getWidth(), src.getHeight(), minThreshold, reuse);
+	}
+	
+	/**
+	 * Packs raw 8 bit gray levels into a binary image in which levels below minThreshold are ink. Row y starts 
+	 * y * stride bytes after the buffer's position. The buffer's position and limit are left as they are.
+	 */
+	public static BinaryImage binarize(ByteBuffer gray, int width, int height, int stride, int minThreshold){
+		return binarize(pixels(gray, width, height, stride), width, height, minThreshold, null);
+	}
+	
+	private static BinaryImage binarize(Pixels pixels, int w, int h, int minThreshold, BinaryImage reuse){
+		BinaryImage img = reuse;
+		if (img == null || img.getWidth() != w || img.getHeight() != h){
+			img = new BinaryImage(w, h);
+		}
+		int[] values = new int[w];
+		long[] words = img.words();
+		int wordsPerRow = img.getWordsPerRow();
+		for (int y = 0 ; y < h ; y ++){
+			pixels.read(y, values);
+			int offset = y * wordsPerRow;
+			for (int i = 0 ; i < wordsPerRow ; i ++){
+				long word = 0;
+				int end = Math.min(64, w - (i << 6));
+				for (int b = 0, x = i << 6 ; b < end ; b ++, x ++){
+					if (values[x] < minThreshold){
+						word |= 1L << b;
+					}
+				}
+				words[offset + i] = word;
+			}
+		}
+		return img;
+	}
+	
+	/**
+	 * Otsu's threshold for src: the value that best splits the histogram of the bitwise and of each pixel's red, 
+	 * green and blue components into two classes. Pixels below it are ink, as in {@link #binarize(BufferedImage, int)}.
+	 */
+	public static int otsuThreshold(BufferedImage src){
+		return otsuThreshold(pixels(src), src.getWidth(), src.getHeight());
+	}
+	
+	/**
+	 * Otsu's threshold for raw 8 bit gray levels laid out as for {@link #binarize(ByteBuffer, int, int, int, int)}.
+	 */
+	public static int otsuThreshold(ByteBuffer gray, int width, int height, int stride){
+		return otsuThreshold(pixels(gray, width, height, stride), width, height);
+	}
+	
+	private static int otsuThreshold(Pixels pixels, int w, int h){
+		int[] values = new int[w];
+		long[] histogram = new long[256];
+		for (int y = 0 ; y < h ; y ++){
+			pixels.read(y, values);
+			for (int x = 0 ; x < w ; x ++){
+				histogram[values[x]]++;
+			}
+		}
+		long total = (long)w * h;
+		double sum = 0;
+		for (int v = 0 ; v < 256 ; v ++){
+			sum += v * histogram[v];
+		}
+		double sumBelow = 0;
+		long below = 0;
+		double bestVariance = -1;
+		int best = 0;
+		for (int v = 0 ; v < 256 ; v ++){
+			below += histogram[v];
+			if (below == 0){
+				continue;
+			}
+			long above = total - below;
+			if (above == 0){
+				break;
+			}
+			sumBelow += v * histogram[v];
+			double meanBelow = sumBelow / below;
+			double meanAbove = (sum - sumBelow) / above;
+			double variance = (double)below * above * (meanBelow - meanAbove) * (meanBelow - meanAbove);
+			if (variance > bestVariance){
+				bestVariance = variance;
+				best = v;
+			}
+		}
+		return best + 1;
+	}
+	
+	/**
+	 * Reads a row of an image as the bitwise and of each pixel's red, green and blue components.
+	 */
+	private static abstract class Pixels {
+		abstract void read(int y, int[] values);
+	}
+	
+	/**
+	 * Reads straight from the data buffer for the common byte and int rasters, and through getRGB for the rest.
+	 */
+	private static Pixels pixels(final BufferedImage src){
+		final WritableRaster raster = src.getRaster();
+		final ColorModel cm = src.getColorModel();
+		final SampleModel sm = raster.getSampleModel();
+		final int w = src.getWidth();
+		final int dx = -raster.getSampleModelTranslateX();
+		final int dy = -raster.getSampleModelTranslateY();
+		boolean sRGB = cm.getColorSpace().isCS_sRGB() && !cm.isAlphaPremultiplied();
+		
+		if (cm instanceof ComponentColorModel && sm instanceof PixelInterleavedSampleModel 
+				&& raster.getDataBuffer() instanceof DataBufferByte && sRGB && cm.getNumColorComponents() == 3){
+			PixelInterleavedSampleModel pism = (PixelInterleavedSampleModel)sm;
+			final byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+			final int base = raster.getDataBuffer().getOffset();
+			final int stride = pism.getScanlineStride();
+			final int pixelStride = pism.getPixelStride();
+			final int r = pism.getBandOffsets()[0];
+			final int g = pism.getBandOffsets()[1];
+			final int b = pism.getBandOffsets()[2];
+			return new Pixels() {
+				void read(int y, int[] values) {
+					int i = base + (y + dy) * stride + dx * pixelStride;
+					for (int x = 0 ; x < w ; x ++, i += pixelStride){
+						values[x] = data[i + r] & data[i + g] & data[i + b] & 0xff;
+					}
+				}
+			};
+		}
+		if (cm instanceof ComponentColorModel && sm instanceof PixelInterleavedSampleModel 
+				&& raster.getDataBuffer() instanceof DataBufferByte && cm.getNumComponents() == 1){
+			PixelInterleavedSampleModel pism = (PixelInterleavedSampleModel)sm;
+			final byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+			final int base = raster.getDataBuffer().getOffset() + pism.getBandOffsets()[0];
+			final int stride = pism.getScanlineStride();
+			final int pixelStride = pism.getPixelStride();
+			final int[] lut = new int[256]; // Gray levels are not linear in sRGB, so map them as getRGB does.
+			for (int v = 0 ; v < lut.length ; v ++){
+				int rgb = cm.getRGB(v);
+				lut[v] = (rgb >> 16) & (rgb >> 8) & rgb & 0xff;
+			}
+			return new Pixels() {
+				void read(int y, int[] values) {
+					int i = base + (y + dy) * stride + dx * pixelStride;
+					for (int x = 0 ; x < w ; x ++, i += pixelStride){
+						values[x] = lut[data[i] & 0xff];
+					}
+				}
+			};
+		}
+		if (cm instanceof DirectColorModel && sm instanceof SinglePixelPackedSampleModel 
+				&& raster.getDataBuffer() instanceof DataBufferInt && sRGB && isByteMask(((DirectColorModel)cm).getRedMask())
+				&& isByteMask(((DirectColorModel)cm).getGreenMask()) && isByteMask(((DirectColorModel)cm).getBlueMask())){
+			DirectColorModel dcm = (DirectColorModel)cm;
+			SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel)sm;
+			final int[] data = ((DataBufferInt)raster.getDataBuffer()).getData();
+			final int base = raster.getDataBuffer().getOffset();
+			final int stride = sppsm.getScanlineStride();
+			final int r = Integer.numberOfTrailingZeros(dcm.getRedMask());
+			final int g = Integer.numberOfTrailingZeros(dcm.getGreenMask());
+			final int b = Integer.numberOfTrailingZeros(dcm.getBlueMask());
+			return new Pixels() {
+				void read(int y, int[] values) {
+					int i = base + (y + dy) * stride + dx;
+					for (int x = 0 ; x < w ; x ++, i ++){
+						int p = data[i];
+						values[x] = (p >>> r) & (p >>> g) & (p >>> b) & 0xff;
+					}
+				}
+			};
+		}
+		return new Pixels() {
+			void read(int y, int[] values) {
+				for (int x = 0 ; x < w ; x ++){
+					int rgb = src.getRGB(x, y);
+					values[x] = (rgb >> 16) & (rgb >> 8) & rgb & 0xff;
+				}
+			}
+		};
+	}
+	
+	private static Pixels pixels(ByteBuffer gray, final int w, int h, final int stride){
+		if (w <= 0 || h <= 0 || stride < w){
+			throw new IllegalArgumentException("Bad layout " + w + "x" + h + " with stride " + stride);
+		}
+		if (gray.remaining() < (long)(h - 1) * stride + w){
+			throw new IllegalArgumentException("Buffer of " + gray.remaining() + " bytes is too small for " + w + "x" + h + " with stride " + stride);
+		}
+		final ByteBuffer rows = gray.duplicate();
+		final int base = gray.position();
+		final byte[] row = new byte[w];
+		return new Pixels() {
+			void read(int y, int[] values) {
+				rows.position(base + y * stride);
+				rows.get(row, 0, w);
+				for (int x = 0 ; x < w ; x ++){
+					values[x] = row[x] & 0xff;
+				}
+			}
+		};
+	}
+	
+	private static boolean isByteMask(int mask){
+		return (mask >>> Integer.numberOfTrailingZeros(mask)) == 0xff;
+	}
+	
+	public static double distanceBetween(BinaryImage o1, BinaryImage o2){
+		return distanceBetween(o1, o2, Double.POSITIVE_INFINITY);
+	}
+	/**
+	 * Hamming distance between two images of the same size. Gives up and returns the partial count 
+	 * as soon as it exceeds limit.
+	 */
+	public static double distanceBetween(BinaryImage o1, BinaryImage o2, double limit){
+		long[] w1 = o1.words();
+		long[] w2 = o2.words();
+		long m = 0 ;
+		for (int i = 0 ; i < w1.length && m <= limit ; i ++){
+			m += Long.bitCount(w1[i] ^ w2[i]);
+		}
+		return m;
+	}
 	public static double distanceBetween(BufferedImage o1, BufferedImage o2){
 		double m = 0 ;
 		for (int x = 0 ; x < o1.getWidth() ; x++){
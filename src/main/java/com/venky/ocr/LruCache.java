@@ -0,0 +1,42 @@
+package com.venky.ocr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded map that evicts the least recently used entry. All access is synchronized.
+ */
+class LruCache<K, V> {
+	private final int maxEntries;
+	private final LinkedHashMap<K, V> map;
+
+	public LruCache(final int maxEntries) {
+		this.maxEntries = maxEntries;
+		this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > LruCache.this.maxEntries;
+			}
+		};
+	}
+
+	public synchronized V get(K key) {
+		return map.get(key);
+	}
+
+	public synchronized void put(K key, V value) {
+		if (maxEntries > 0) {
+			map.put(key, value);
+		}
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public synchronized void clear() {
+		map.clear();
+	}
+}
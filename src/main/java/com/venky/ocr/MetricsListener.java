@@ -0,0 +1,14 @@
+package com.venky.ocr;
+
+/**
+ * Receives the {@link RecognitionMetrics} of every recognition call made on a {@link TextRecognizer}. 
+ * It is called on the thread that made the call, once the call is done.
+ */
+public interface MetricsListener {
+	public static final MetricsListener NONE = new MetricsListener() {
+		public void recognized(RecognitionMetrics metrics) {
+		}
+	};
+
+	public void recognized(RecognitionMetrics metrics);
+}
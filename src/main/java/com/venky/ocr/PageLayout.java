@@ -0,0 +1,95 @@
+package com.venky.ocr;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.venky.ocr.TextRecognizer.CharacterRegion;
+import com.venky.ocr.TextRecognizer.Line;
+
+/**
+ * A page that has been thresholded and segmented into lines and glyphs once, so that parts of it can be recognized
+ * over and over for the cost of matching alone. Get one from {@link TextRecognizer#layout}. A layout does not change
+ * once made and may be shared between threads.
+ *
+ * A glyph belongs to a region of the page when the middle of its column span and the middle of its line's row span
+ * fall within the region. Glyphs are matched in the context of their whole line, so a region reads the same as the
+ * corresponding part of the whole page would.
+ */
+public class PageLayout {
+	private final BinaryImage image;
+	private final List<Line> lines;
+
+	PageLayout(BinaryImage image, List<Line> lines) {
+		this.image = image;
+		this.lines = Collections.unmodifiableList(new ArrayList<Line>(lines));
+	}
+
+	public int getWidth() {
+		return image.getWidth();
+	}
+
+	public int getHeight() {
+		return image.getHeight();
+	}
+
+	BinaryImage getImage() {
+		return image;
+	}
+
+	public List<Line> getLines() {
+		return lines;
+	}
+
+	/**
+	 * The line with the given number, or null if the page has no such line.
+	 */
+	public Line getLine(int lineNumber) {
+		for (Line line : lines) {
+			if (line.lineNumber == lineNumber) {
+				return line;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The lines with at least one glyph in the region.
+	 */
+	public List<Line> getLines(Rectangle region) {
+		List<Line> inRegion = new ArrayList<Line>();
+		for (Line line : lines) {
+			if (region.contains(region.x, line.middleRow()) && first(line, region) < last(line, region)) {
+				inRegion.add(line);
+			}
+		}
+		return inRegion;
+	}
+
+	/**
+	 * Index of the first glyph of the line in the region's columns, or the number of glyphs if there is none.
+	 */
+	static int first(Line line, Rectangle region) {
+		int i = 0;
+		while (i < line.characterImages.size() && line.characterImages.get(i).middleColumn() < region.x) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * One past the index of the last glyph of the line in the region's columns.
+	 */
+	static int last(Line line, Rectangle region) {
+		int i = line.characterImages.size();
+		while (i > 0 && !isBefore(line.characterImages.get(i - 1), region)) {
+			i--;
+		}
+		return i;
+	}
+
+	private static boolean isBefore(CharacterRegion glyph, Rectangle region) {
+		return glyph.middleColumn() < region.x + region.width;
+	}
+}
@@ -0,0 +1,10 @@
+package com.venky.ocr;
+
+/**
+ * Receives recognition results as they are produced, glyph by glyph in reading order.
+ */
+public interface RecognitionListener {
+	public void recognized(GlyphResult glyph);
+
+	public void endOfLine(int lineNumber);
+}
@@ -0,0 +1,59 @@
+package com.venky.ocr;
+
+/**
+ * Time spent in each stage and counts of the work done by one recognition call.
+ * Times are in nanoseconds and are only measured while a {@link MetricsListener} other than 
+ * {@link MetricsListener#NONE} is registered.
+ */
+public class RecognitionMetrics {
+	public enum Stage {
+		DECODE, THRESHOLD, SEGMENT, CANDIDATE_BAND, MATCH
+	}
+
+	public enum Counter {
+		LINES, GLYPHS, COMPARISONS, PRUNED_BY_SIZE, PRUNED_BY_POSITION, PRUNED_BY_FEATURES, AMBIGUOUS, BANDS_REUSED, GLYPH_CACHE_HITS, GLYPH_CACHE_MISSES
+	}
+
+	private final long[] nanos = new long[Stage.values().length];
+	private final long[] counts = new long[Counter.values().length];
+
+	public long getNanos(Stage stage) {
+		return nanos[stage.ordinal()];
+	}
+
+	public long getCount(Counter counter) {
+		return counts[counter.ordinal()];
+	}
+
+	void add(Stage stage, long elapsed) {
+		nanos[stage.ordinal()] += elapsed;
+	}
+
+	void increment(Counter counter) {
+		counts[counter.ordinal()]++;
+	}
+
+	void add(Counter counter, long count) {
+		counts[counter.ordinal()] += count;
+	}
+
+	void add(RecognitionMetrics other) {
+		for (int i = 0; i < nanos.length; i++) {
+			nanos[i] += other.nanos[i];
+		}
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+	}
+
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		for (Stage stage : Stage.values()) {
+			s.append(stage).append("=").append(getNanos(stage) / 1000).append("us ");
+		}
+		for (Counter counter : Counter.values()) {
+			s.append(counter).append("=").append(getCount(counter)).append(" ");
+		}
+		return s.toString().trim();
+	}
+}
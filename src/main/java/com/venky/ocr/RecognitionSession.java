@@ -0,0 +1,147 @@
+package com.venky.ocr;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.venky.ocr.TextRecognizer.Line;
+
+/**
+ * Recognizes successive frames of a screen that mostly stays the same, such as a terminal. Each frame is
+ * thresholded and its rows hashed. A line whose rows are the same as those of a line of the previous frame is not
+ * segmented or matched again; the previous results are reused, moved to where the line is now. Hashes only find
+ * the earlier line; its pixels are compared before anything is reused. Only new or changed
+ * lines are matched, so the cost of a frame depends on how much of it changed rather than on its size.
+ *
+ * Lines are matched on their own, so results can only differ from those of recognizing the whole frame when a page
+ * wide candidate band is sampled (pageBandSampleLines). A session is meant for one stream of frames and is not
+ * safe for use by several threads at once.
+ */
+public class RecognitionSession {
+	private final TextRecognizer recognizer;
+	private final int minCharWidth;
+	private Map<Long, Band> previous = new HashMap<Long, Band>();
+	private int linesMatched = 0;
+
+	public RecognitionSession(TextRecognizer recognizer, int minCharWidth) {
+		this.recognizer = recognizer;
+		this.minCharWidth = minCharWidth;
+	}
+
+	public TextRecognizer getRecognizer() {
+		return recognizer;
+	}
+
+	/**
+	 * Number of lines of the last frame that had to be matched, as opposed to reused from the frame before.
+	 */
+	public int getLinesMatched() {
+		return linesMatched;
+	}
+
+	public StringBuffer recognize(BufferedImage frame) {
+		StringBuffer out = new StringBuffer();
+		recognize(frame, new TextRecognizer.TextWriter(out));
+		return out;
+	}
+
+	public void recognize(BufferedImage frame, RecognitionListener listener) {
+		BinaryImage img = recognizer.binarize(frame);
+		List<Line> bands = TextRecognizer.getLineBands(img);
+		Map<Long, Band> current = new HashMap<Long, Band>();
+		List<Band> page = new ArrayList<Band>(bands.size());
+		List<Line> dirty = new ArrayList<Line>();
+		for (Line line : bands) {
+			long key = key(img, line);
+			Band band = previous.get(key);
+			if (band == null || !band.matches(img, line)) {
+				band = current.get(key);
+			}
+			if (band == null || !band.matches(img, line)) {
+				band = new Band(img, line);
+				TextRecognizer.segmentLine(img, frame, line, minCharWidth);
+				if (!TextRecognizer.isEmpty(line)) {
+					dirty.add(line);
+				}
+			}
+			current.put(key, band);
+			page.add(band);
+		}
+
+		final Map<Integer, List<GlyphResult>> matched = new HashMap<Integer, List<GlyphResult>>();
+		recognizer.recognize(dirty, new RecognitionListener() {
+			private List<GlyphResult> glyphs = new ArrayList<GlyphResult>();
+
+			public void recognized(GlyphResult glyph) {
+				glyphs.add(glyph);
+			}
+
+			public void endOfLine(int lineNumber) {
+				matched.put(lineNumber, glyphs);
+				glyphs = new ArrayList<GlyphResult>();
+			}
+		});
+		for (int l = 0; l < bands.size(); l++) {
+			Line line = bands.get(l);
+			Band band = page.get(l);
+			if (matched.containsKey(line.lineNumber)) {
+				band.glyphs = matched.get(line.lineNumber);
+			}
+			if (band.glyphs != null) {
+				for (GlyphResult glyph : band.glyphs) {
+					listener.recognized(glyph.moveTo(line.lineNumber, line.startRow - band.startRow));
+				}
+				listener.endOfLine(line.lineNumber);
+			}
+		}
+		previous = current;
+		linesMatched = dirty.size();
+	}
+
+	private static long key(BinaryImage img, Line line) {
+		long key = line.endRow - line.startRow;
+		for (int y = line.startRow; y <= line.endRow; y++) {
+			key = BinaryImage.mix(key ^ img.rowHash(y));
+		}
+		return key;
+	}
+
+	/**
+	 * Results of a line as they were when it was matched, at startRow, and the rows they were matched from. Null
+	 * glyphs mean the rows held no glyphs.
+	 */
+	private static class Band {
+		private final int startRow;
+		private final int width;
+		private final long[] rows;
+		private List<GlyphResult> glyphs;
+
+		private Band(BinaryImage img, Line line) {
+			this.startRow = line.startRow;
+			this.width = img.getWidth();
+			this.rows = Arrays.copyOfRange(img.words(), line.startRow * img.getWordsPerRow(),
+					(line.endRow + 1) * img.getWordsPerRow());
+		}
+
+		/**
+		 * Whether the line has exactly the pixels of this band, so that its results can be reused. Hashes that
+		 * match are only a hint.
+		 */
+		private boolean matches(BinaryImage img, Line line) {
+			int from = line.startRow * img.getWordsPerRow();
+			if (img.getWidth() != width || (line.endRow + 1) * img.getWordsPerRow() - from != rows.length) {
+				return false;
+			}
+			long[] words = img.words();
+			for (int i = 0; i < rows.length; i++) {
+				if (words[from + i] != rows[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package com.venky.ocr;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A destination image for an {@link ImageReader} that only keeps the rows the reader has written and that have not
+ * been released yet. An image that is decoded top to bottom in a single pass can then be read a strip at a time, in
+ * one decode and with memory for a few strips only. Released rows are recycled for the rows that follow.
+ *
+ * The image looks like any other to the reader and to getRGB, except that a released row reads as all zeros.
+ */
+class StreamedImage {
+	private final ImageTypeSpecifier type;
+	private final BufferedImage image;
+	private final Rows rows;
+	private BufferedImage strip = null;
+
+	private StreamedImage(ImageTypeSpecifier type, int width, int height, int stride, int numBanks) {
+		SampleModel sm = type.getSampleModel(width, height);
+		this.type = type;
+		this.rows = new Rows(sm.getDataType(), stride, height, numBanks);
+		if (sm instanceof PixelInterleavedSampleModel && numBanks == 1) {
+			sm = new RowSampleModel((PixelInterleavedSampleModel) sm);
+		}
+		this.image = new BufferedImage(type.getColorModel(), Raster.createWritableRaster(sm, rows, null), false, null);
+	}
+
+	/**
+	 * A destination for the first image of the reader, or null if the image is decoded in several passes or its
+	 * rows cannot be told apart in its data buffer.
+	 */
+	static StreamedImage create(ImageReader reader) throws IOException {
+		if (!isSinglePass(reader.getImageMetadata(0))) {
+			return null;
+		}
+		Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+		if (types == null || !types.hasNext()) {
+			return null;
+		}
+		ImageTypeSpecifier type = types.next();
+		int width = reader.getWidth(0);
+		SampleModel sm = type.getSampleModel(width, 1);
+		int stride = scanlineStride(sm);
+		if (stride <= 0) {
+			return null;
+		}
+		DataBuffer row = sm.createDataBuffer();
+		for (int bank = 0; bank < row.getNumBanks(); bank++) {
+			if (row.getOffsets()[bank] != 0 || row.getSize() > stride) {
+				return null;
+			}
+		}
+		return new StreamedImage(type, width, reader.getHeight(0), stride, row.getNumBanks());
+	}
+
+	private static boolean isSinglePass(IIOMetadata metadata) {
+		if (metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+			return false;
+		}
+		Node scans = child(child(metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName), "Compression"),
+				"NumProgressiveScans");
+		return scans instanceof Element && "1".equals(((Element) scans).getAttribute("value"));
+	}
+
+	private static Node child(Node node, String name) {
+		for (Node c = (node == null) ? null : node.getFirstChild(); c != null; c = c.getNextSibling()) {
+			if (name.equals(c.getNodeName())) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	private static int scanlineStride(SampleModel sm) {
+		if (sm instanceof ComponentSampleModel) {
+			return ((ComponentSampleModel) sm).getScanlineStride();
+		} else if (sm instanceof SinglePixelPackedSampleModel) {
+			return ((SinglePixelPackedSampleModel) sm).getScanlineStride();
+		} else if (sm instanceof MultiPixelPackedSampleModel) {
+			return ((MultiPixelPackedSampleModel) sm).getScanlineStride();
+		}
+		return -1;
+	}
+
+	BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * A copy of rows y to y + height - 1 in an image of the usual kind, which is much faster to read pixels from. 
+	 * The copy is overwritten by the next call.
+	 */
+	BufferedImage getRows(int y, int height) {
+		if (strip == null || strip.getHeight() < height) {
+			strip = type.createBufferedImage(image.getWidth(), height);
+		}
+		strip.getRaster().setDataElements(0, 0, image.getRaster().createChild(0, y, image.getWidth(), height, 0, 0, null));
+		return strip.getSubimage(0, 0, image.getWidth(), height);
+	}
+
+	/**
+	 * Gives up the rows above toY.
+	 */
+	void release(int toY) {
+		rows.release(toY);
+	}
+
+	/**
+	 * Moves whole runs of pixels in and out of the rows, rather than an element at a time through getElem and 
+	 * setElem, for the common case of interleaved samples in a single bank.
+	 */
+	private static class RowSampleModel extends PixelInterleavedSampleModel {
+		private final int[] bandOffsets;
+
+		private RowSampleModel(PixelInterleavedSampleModel sm) {
+			super(sm.getDataType(), sm.getWidth(), sm.getHeight(), sm.getPixelStride(), sm.getScanlineStride(),
+					sm.getBandOffsets());
+			this.bandOffsets = sm.getBandOffsets();
+		}
+
+		@Override
+		public void setPixels(int x, int y, int w, int h, int[] iArray, DataBuffer data) {
+			Rows rows = (Rows) data;
+			int numBands = bandOffsets.length;
+			for (int r = 0, k = 0; r < h; r++) {
+				int[] row = rows.write(y + r);
+				for (int i = x * pixelStride, end = (x + w) * pixelStride; i < end; i += pixelStride) {
+					for (int b = 0; b < numBands; b++) {
+						row[i + bandOffsets[b]] = iArray[k++] & rows.mask;
+					}
+				}
+			}
+		}
+
+		@Override
+		public Object getDataElements(int x, int y, int w, int h, Object obj, DataBuffer data) {
+			if (getTransferType() != DataBuffer.TYPE_BYTE) {
+				return super.getDataElements(x, y, w, h, obj, data);
+			}
+			Rows rows = (Rows) data;
+			int numBands = bandOffsets.length;
+			byte[] elements = (obj == null) ? new byte[w * h * numBands] : (byte[]) obj;
+			for (int r = 0, k = 0; r < h; r++) {
+				int[] row = rows.read(y + r);
+				for (int i = x * pixelStride, end = (x + w) * pixelStride; i < end; i += pixelStride) {
+					for (int b = 0; b < numBands; b++) {
+						elements[k++] = (row == null) ? 0 : (byte) row[i + bandOffsets[b]];
+					}
+				}
+			}
+			return elements;
+		}
+	}
+
+	/**
+	 * Data elements of the image, a row at a time. Rows are only allocated once written to.
+	 */
+	private static class Rows extends DataBuffer {
+		private final int stride;
+		private final int mask;
+		private final int[][] rows;
+		private final ArrayDeque<int[]> free = new ArrayDeque<int[]>();
+		private int released = 0; // Rows above this have been released.
+		private int cachedStart = -1; // Indices of the elements of the row last looked up.
+		private int cachedEnd = -1;
+		private int[] cached;
+
+		private Rows(int dataType, int stride, int height, int numBanks) {
+			super(dataType, stride * height, numBanks);
+			this.stride = stride;
+			this.mask = (dataType == TYPE_BYTE) ? 0xff : (dataType == TYPE_USHORT ? 0xffff : -1);
+			this.rows = new int[height][];
+		}
+
+		private void lookUp(int i) {
+			int y = i / stride;
+			cachedStart = y * stride;
+			cachedEnd = cachedStart + stride;
+			cached = write(y);
+		}
+
+		/**
+		 * The elements of row y, to be written to.
+		 */
+		private int[] write(int y) {
+			if (rows[y] == null) {
+				rows[y] = free.isEmpty() ? new int[stride * getNumBanks()] : free.pop();
+			}
+			return rows[y];
+		}
+
+		/**
+		 * The elements of row y, or null if it has been released or not written yet.
+		 */
+		private int[] read(int y) {
+			return rows[y];
+		}
+
+		@Override
+		public int getElem(int bank, int i) {
+			if (i < cachedStart || i >= cachedEnd) {
+				if (read(i / stride) == null) {
+					return 0;
+				}
+				lookUp(i);
+			}
+			return cached[bank * stride + i - cachedStart];
+		}
+
+		@Override
+		public void setElem(int bank, int i, int val) {
+			if (i < cachedStart || i >= cachedEnd) {
+				lookUp(i);
+			}
+			cached[bank * stride + i - cachedStart] = val & mask;
+		}
+
+		private void release(int toY) {
+			for (int y = released; y < toY; y++) {
+				if (rows[y] != null) {
+					Arrays.fill(rows[y], 0);
+					free.push(rows[y]);
+					rows[y] = null;
+				}
+			}
+			released = Math.max(released, toY);
+			cachedStart = cachedEnd = -1;
+			cached = null;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.venky.ocr;
+
+/**
+ * An {@link LruCache} split by key hash into stripes, each with its own lock and an even share of the entries, so
+ * that threads using the cache at once seldom wait on each other. The least recently used entry of a stripe is the
+ * one evicted when that stripe is full.
+ */
+class StripedLruCache<K, V> {
+	private static final int MAX_STRIPES = 16;
+
+	private final LruCache<K, V>[] stripes;
+
+	@SuppressWarnings("unchecked")
+	public StripedLruCache(int maxEntries) {
+		int numStripes = Math.max(1, Math.min(MAX_STRIPES, maxEntries));
+		this.stripes = new LruCache[numStripes];
+		for (int s = 0; s < numStripes; s++) {
+			stripes[s] = new LruCache<K, V>((maxEntries + numStripes - 1) / numStripes);
+		}
+	}
+
+	private LruCache<K, V> stripe(K key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return stripes[(hash & Integer.MAX_VALUE) % stripes.length];
+	}
+
+	public V get(K key) {
+		return stripe(key).get(key);
+	}
+
+	public void put(K key, V value) {
+		stripe(key).put(key, value);
+	}
+
+	public int size() {
+		int size = 0;
+		for (LruCache<K, V> stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	public void clear() {
+		for (LruCache<K, V> stripe : stripes) {
+			stripe.clear();
+		}
+	}
+}
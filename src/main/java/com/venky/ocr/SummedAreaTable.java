@@ -0,0 +1,46 @@
+package com.venky.ocr;
+
+/**
+ * Ink counts of every rectangle within a region of a {@link BinaryImage}, answered in constant time.
+ * Coordinates passed to the queries are those of the image, not of the region.
+ */
+public class SummedAreaTable {
+	private final int fromX;
+	private final int fromY;
+	private final int stride;
+	private final int[] sums;
+
+	public SummedAreaTable(BinaryImage img, int fromX, int fromY, int toX, int toY) {
+		this.fromX = fromX;
+		this.fromY = fromY;
+		this.stride = toX - fromX + 2;
+		this.sums = new int[stride * (toY - fromY + 2)];
+		for (int y = fromY; y <= toY; y++) {
+			int row = (y - fromY + 1) * stride;
+			int rowSum = 0;
+			for (int x = fromX; x <= toX; x++) {
+				if (img.isInk(x, y)) {
+					rowSum++;
+				}
+				int i = row + (x - fromX + 1);
+				sums[i] = sums[i - stride] + rowSum;
+			}
+		}
+	}
+
+	public int ink(int x1, int y1, int x2, int y2) {
+		int left = x1 - fromX;
+		int right = x2 - fromX + 1;
+		int top = (y1 - fromY) * stride;
+		int bottom = (y2 - fromY + 1) * stride;
+		return sums[bottom + right] - sums[bottom + left] - sums[top + right] + sums[top + left];
+	}
+
+	public boolean isRowBlank(int y, int fromX, int toX) {
+		return ink(fromX, y, toX, y) == 0;
+	}
+
+	public boolean isColumnBlank(int x, int fromY, int toY) {
+		return ink(x, fromY, x, toY) == 0;
+	}
+}
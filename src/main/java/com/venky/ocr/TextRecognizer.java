@@ -1,25 +1,52 @@
 package com.venky.ocr;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Properties;
-import java.util.Set;
 import java.util.SortedMap;
 import java.util.Stack;
-import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
 
+import com.venky.ocr.RecognitionMetrics.Counter;
+import com.venky.ocr.RecognitionMetrics.Stage;
+
+/**
+ * Recognizes text in images using the glyphs of a {@link FontModel}. 
+ * 
+ * A TextRecognizer is thread safe. Its settings are read once at construction, the model it shares is 
+ * immutable and everything a recognition call works on is created for that call alone, so one instance may 
+ * serve any number of threads. The metrics listener is the only setting that may change afterwards; a change 
+ * applies to calls that start after it. The one thing calls share, with every other recognizer of the same 
+ * model, is the model's cache of the results of glyph bitmaps already matched (glyphCacheSize), which only saves 
+ * work and never changes a result.
+ */
 public class TextRecognizer {
-	private boolean debug = false ;
+	private final boolean debug;
 	
 	public boolean isDebug() {
 		return debug;
@@ -29,64 +56,102 @@ public class TextRecognizer {
 		this("monospace",false);
 	}
 
-	private Properties properties = new Properties();
-	private Histogram histogram = null ;
+	private final FontModel model;
+	private final Histogram histogram;
+	private final SortedMap<Character, CharacterRegion> trainingMap;
+	private final GlyphIndex glyphIndex;
+	
 	public Histogram getHistogram(){
 		return histogram;
 	}
-	private int getMinCharacterWidth() {
-		return Integer.valueOf(
-				properties.getProperty("minCharacterWidth", "10")).intValue();
+	
+	private static boolean isOtsuThreshold(String thresholdMode){
+		if ("otsu".equals(thresholdMode)){
+			return true;
+		}else if ("fixed".equals(thresholdMode)){
+			return false;
+		}
+		throw new IllegalArgumentException("Unknown thresholdMode " + thresholdMode + ", expected fixed or otsu");
+	}
+	
+	private volatile MetricsListener metricsListener = MetricsListener.NONE;
+	
+	public MetricsListener getMetricsListener(){
+		return metricsListener;
 	}
-
-	private String getLimitedTrainingCharacters() {
-		return properties.getProperty("limitedTrainingCharacters");
+	
+	public void setMetricsListener(MetricsListener metricsListener){
+		this.metricsListener = (metricsListener == null) ? MetricsListener.NONE : metricsListener;
 	}
 	
+	public FontModel getModel(){
+		return model;
+	}
+	
+	private final double relativeSizeThresholdFraction;
+	private final double spaceWidthFraction;
+	private final int minColorThreshold;
+	private final boolean otsuThreshold;
+	private final int pageBandSampleLines;
+	private final int candidateLimit;
+	private final int stripHeight;
+	private final StripedLruCache<GlyphKey, GlyphResult> glyphCache; // Null when off.
+	
 	private double getRelativeSizeThresholdFraction(){
-		return Double.valueOf(properties.getProperty("relativeSizeThresholdFraction","0.1")).doubleValue();
+		return relativeSizeThresholdFraction;
 	}
 	public int getMinColorThreshold(){
-		return Integer.valueOf(properties.getProperty("minColorThreshold","127")).intValue();
+		return minColorThreshold;
+	}
+	
+	/**
+	 * The threshold below which pixels of img are ink. With thresholdMode=otsu it is worked out from img itself, 
+	 * otherwise it is minColorThreshold.
+	 */
+	public int getThreshold(BufferedImage img){
+		return otsuThreshold ? ImageUtil.otsuThreshold(img) : getMinColorThreshold();
 	}
 	
 	public BufferedImage threshold(BufferedImage img){
-		return ImageUtil.threshold(img, getMinColorThreshold());
+		return ImageUtil.threshold(img, getThreshold(img));
+	}
+	
+	public BinaryImage binarize(BufferedImage img){
+		return ImageUtil.binarize(img, getThreshold(img));
 	}
 
 	public TextRecognizer(String font){
 		this(font,true);
 	}
 	public TextRecognizer(String font,boolean debug) {
+		this(FontModel.get(font),debug);
+	}
+	public TextRecognizer(FontModel model){
+		this(model,false);
+	}
+	public TextRecognizer(FontModel model,boolean debug) {
 		this.debug = debug;
-		load(font, properties);
-		List<Line> lines = getLines(read("/com/venky/ocr/"+ font + ".jpg"), getMinCharacterWidth());
-		assert (lines.size() >= 1);
-		String trainingCharacters = getLimitedTrainingCharacters();
-		int c = 33;
-		int i = 0 ;
-		for (Line line : lines) {
-			for (CharacterRegion cr : line.characterImages) {
-				if (trainingCharacters == null
-						|| trainingCharacters.indexOf(c) >= 0) {
-					trainingMap.put(((char) c), cr);
-				}
-				if (isDebug()){
-					cr.write("debug/training-"+i +".jpg");
-					i++;
-				}
-				c++;
+		this.model = model;
+		this.histogram = model.getHistogram();
+		this.trainingMap = model.getTrainingMap();
+		this.relativeSizeThresholdFraction = Double.valueOf(model.getProperty("relativeSizeThresholdFraction","0.1")).doubleValue();
+		this.spaceWidthFraction = Double.valueOf(model.getProperty("spaceWidthFraction", "0.5")).doubleValue();
+		this.minColorThreshold = model.getMinColorThreshold();
+		this.otsuThreshold = isOtsuThreshold(model.getProperty("thresholdMode", "fixed"));
+		this.pageBandSampleLines = Integer.valueOf(model.getProperty("pageBandSampleLines", "0")).intValue();
+		this.glyphIndex = model.getGlyphIndex();
+		this.candidateLimit = model.getCandidateLimit();
+		this.stripHeight = Integer.valueOf(model.getProperty("stripHeight", "64")).intValue();
+		this.glyphCache = model.getGlyphCache();
+		if (isDebug()){
+			int i = 0 ;
+			for (CharacterRegion cr : trainingMap.values()) {
+				cr.write("debug/training-"+i +".jpg");
+				i++;
 			}
 		}
-		histogram = new Histogram(trainingMap);
-		//System.out.println(trainingMap.size());
-		assert trainingMap.size() == (126 - 33 + 1);
 	}
 	
-	
-
-	private TreeMap<Character, CharacterRegion> trainingMap = new TreeMap<Character, CharacterRegion>();
-
 	private static class AbstractCharacterRegion {
 		int startRow = -1;
 		int endRow = -1;
@@ -128,7 +193,7 @@ public class TextRecognizer {
 	}
 
 	public static class CharacterRegion extends AbstractCharacterRegion {
-		BufferedImage img = null;
+		BinaryImage img = null;
 		BufferedImage src = null;
 		Line line = null;
 
@@ -144,15 +209,17 @@ public class TextRecognizer {
 			return copy;
 		}
 
-		private BufferedImage croppedImage = null;
-		public BufferedImage croppedImage() {
-			if (croppedImage != null && (width() != croppedImage.getWidth() || height() != croppedImage.getHeight())){
-				croppedImage = null;
+		BinaryImage bitmap = null;
+		BinaryImage normalized = null;
+		public BinaryImage bitmap() {
+			if (bitmap != null && width() == bitmap.getWidth() && height() == bitmap.getHeight()){
+				return bitmap;
 			}
-			if (croppedImage == null){
-				croppedImage = extract();
-			}
-			return croppedImage;
+			return extract();
+		}
+		
+		public BufferedImage croppedImage() {
+			return bitmap().toBufferedImage();
 		}
 		
 		public void write(String fileName) {
@@ -163,21 +230,8 @@ public class TextRecognizer {
 			}
 		}
 
-		private BufferedImage extract() {
-			BufferedImage src = new BufferedImage(width(), height(), img.getType());
-			for (int x = startColumn; x <= endColumn; x++) {
-				for (int y = startRow; y <= endRow; y++) {
-					try {
-						src.setRGB(x - startColumn, y - startRow,
-								img.getRGB(x, y));
-					} catch (Exception ex) {
-						throw new RuntimeException("x=" + x + "/" + src.getWidth()
-								+ "y=" + y + "/" + src.getHeight(), ex);
-
-					}
-				}
-			}
-			return src;
+		private BinaryImage extract() {
+			return img.crop(startColumn, startRow, width(), height());
 		}
 
 	}
@@ -216,16 +270,21 @@ public class TextRecognizer {
 	}
 
 	public CharacterRegion trim(CharacterRegion i) {
-		return trimRight(trimBottom(trimTop(i)));
+		return trimRegion(i.createCopy(), new SummedAreaTable(i.img, i.startColumn, i.startRow, i.endColumn, i.endRow));
+	}
+
+	/**
+	 * Shrinks the region to its ink, leaving one blank row or column on each side. The table must cover the region.
+	 */
+	private static CharacterRegion trimRegion(CharacterRegion i, SummedAreaTable ink) {
+		return trimRight(trimLeft(trimBottom(trimTop(i, ink), ink), ink), ink);
 	}
 
-	private CharacterRegion trimBottom(CharacterRegion i) {
-		//CharacterRegion c = i.createCopy();
+	private static CharacterRegion trimBottom(CharacterRegion i, SummedAreaTable ink) {
 		CharacterRegion c = i;
 		int charRow = c.endRow;
 		while (charRow > c.startRow) {
-			if (ImageUtil.isLineBlank(c.img, charRow, c.startColumn,
-					c.endColumn)) {
+			if (ink.isRowBlank(charRow, c.startColumn, c.endColumn)) {
 				charRow--;
 			} else {
 				c.endRow = Math.min(c.endRow, charRow + 1);
@@ -235,13 +294,11 @@ public class TextRecognizer {
 		return c;
 	}
 
-	private CharacterRegion trimTop(CharacterRegion i) {
-		//CharacterRegion c = i.createCopy();
+	private static CharacterRegion trimTop(CharacterRegion i, SummedAreaTable ink) {
 		CharacterRegion c = i;
 		int charRow = c.startRow;
 		while (charRow < c.endRow) {
-			if (ImageUtil.isLineBlank(c.img, charRow, c.startColumn,
-					c.endColumn)) {
+			if (ink.isRowBlank(charRow, c.startColumn, c.endColumn)) {
 				charRow++;
 			} else {
 				c.startRow = Math.max(c.startRow, charRow - 1);
@@ -251,13 +308,25 @@ public class TextRecognizer {
 		return c;
 	}
 	
-	private CharacterRegion trimRight(CharacterRegion i) {
-		//CharacterRegion c = i.createCopy();
+	private static CharacterRegion trimLeft(CharacterRegion i, SummedAreaTable ink) {
+		CharacterRegion c = i;
+		int charColumn = c.startColumn;
+		while (charColumn < c.endColumn) {
+			if (ink.isColumnBlank(charColumn, c.startRow, c.endRow)) {
+				charColumn++;
+			} else {
+				c.startColumn = Math.max(c.startColumn, charColumn - 1);
+				break;
+			}
+		}
+		return c;
+	}
+	
+	private static CharacterRegion trimRight(CharacterRegion i, SummedAreaTable ink) {
 		CharacterRegion c = i;
 		int charColumn = c.endColumn;
 		while (charColumn > c.startColumn) {
-			if (ImageUtil.isColumnBlank(c.img, charColumn, c.startRow,
-					c.endRow)) {
+			if (ink.isColumnBlank(charColumn, c.startRow, c.endRow)) {
 				charColumn--;
 			} else {
 				c.endColumn = Math.min(c.endColumn, charColumn + 1);
@@ -272,170 +341,256 @@ public class TextRecognizer {
 	}
 
 	public List<Line> getLines(BufferedImage src, int minCharacterWidth) {
+		return getLines(binarize(src), src, minCharacterWidth);
+	}
+
+	private List<Line> getLines(BufferedImage src, int minCharacterWidth, Scratch scratch) {
+		long start = scratch.start();
+		BinaryImage img = binarize(src);
+		scratch.stop(Stage.THRESHOLD, start);
+		return getLines(img, src, minCharacterWidth, scratch);
+	}
+	
+	private List<Line> getLines(BinaryImage img, BufferedImage src, int minCharacterWidth, Scratch scratch) {
+		long start = scratch.start();
+		List<Line> lines = getLines(img, src, minCharacterWidth);
+		scratch.stop(Stage.SEGMENT, start);
+		scratch.metrics.add(Counter.LINES, lines.size());
+		return lines;
+	}
+
+	/**
+	 * Lines are runs of rows with ink between two blank rows and glyphs are runs of columns with ink between two 
+	 * blank columns of the line. Both are found from ink count projections of the page, so the page is read once 
+	 * for the row profile and once per line for its column profile. 
+	 */
+	static List<Line> getLines(BinaryImage img, BufferedImage src, int minCharacterWidth) {
+		List<Line> lines = getLineBands(img);
+		Iterator<Line> li = lines.iterator();
+		while (li.hasNext()){
+			Line line = li.next();
+			segmentLine(img, src, line, minCharacterWidth);
+			if (isEmpty(line)){
+				li.remove();
+			}
+		}
+		return lines;
+	}
+	
+	/**
+	 * The rows of each line of the page, numbered in page order, before they are split into glyphs. 
+	 */
+	static List<Line> getLineBands(BinaryImage img) {
+		int[] rowInk = img.rowProfile();
 		int lastBlankRow = -1;
 		Stack<Line> lines = new Stack<Line>();
+		Line open = null;
 		int lineNumber = 0;
-		BufferedImage img = threshold(src);
-		for (int y = 0; y < img.getHeight(); y++) {
-			if (ImageUtil.isLineBlank(img, y, 0, img.getWidth() - 1)) {
-				if (lastBlankRow > 0 && y > lastBlankRow + 1) {
-					Line line = lines.peek();
-					line.endRow = y;
-					int lastBlankColumn = -1;
-					for (int x = 0; x < img.getWidth(); x++) {
-						if (ImageUtil.isColumnBlank(img, x, line.startRow,line.endRow)) {
-							if (lastBlankColumn > 0 && x > lastBlankColumn + 1) {
-								CharacterRegion c = line.characterImages.peek();
-								if (x < c.startColumn + minCharacterWidth) {
-									continue;
-								}
-								c.endColumn = x;
-								c.img = img;
-								c.src = src;
-								trim(c);
-								line.sumCharacterWidth += (c.endColumn - c.startColumn);
-								line.sumCharacterHeight += (c.endRow - c.startRow);
-								if (line.shortest == null || line.shortest.height() > c.height()){
-									line.shortest = c;
-								}
-								if (line.tallest == null || line.tallest.height() < c.height()){
-									line.tallest = c;
-								}
-								if (line.widest == null || line.widest.width() < c.width()){
-									line.widest = c;
-								}
-							}
-							lastBlankColumn = x;
-						} else if (lastBlankColumn > 0
-								&& x == lastBlankColumn + 1) {
-							if (!line.characterImages.isEmpty()) {
-								CharacterRegion last = line.characterImages
-										.peek();
-								if (last.endColumn < 0) {
-									continue;
-								}
-							}
-							CharacterRegion c = new CharacterRegion();
-							c.startColumn = lastBlankColumn;
-							c.startRow = line.startRow;
-							c.endRow = line.endRow;
-							c.line = line;
-							line.characterImages.push(c);
-						}
-					}
+		for (int y = 0; y < rowInk.length; y++) {
+			if (rowInk[y] == 0) {
+				if (open != null) {
+					open.endRow = y;
+					open = null;
 				}
 				lastBlankRow = y;
-			} else if (lastBlankRow > 0 && y == lastBlankRow + 1) {
-				Line line = new Line();
-				line.startRow = lastBlankRow;
-				line.lineNumber = ++lineNumber;
-				lines.push(line);
+			} else if (open == null && lastBlankRow > 0 && y == lastBlankRow + 1) {
+				open = new Line();
+				open.startRow = lastBlankRow;
+				open.lineNumber = ++lineNumber;
+				lines.push(open);
 			}
 		}
-		Iterator<Line> li = lines.iterator();
-		while (li.hasNext()){
-			Line line = li.next();
-			if (line.characterImages.isEmpty() || line.shortest == null){
-				li.remove();
-			}
+		if (open != null){
+			lines.pop(); // Runs into the bottom of the page.
 		}
 		return lines;
 	}
+	
+	static boolean isEmpty(Line line){
+		return line.characterImages.isEmpty() || line.shortest == null;
+	}
+
+	static void segmentLine(BinaryImage img, BufferedImage src, Line line, int minCharacterWidth) {
+		int[] columnInk = img.columnProfile(line.startRow, line.endRow);
+		SummedAreaTable ink = new SummedAreaTable(img, 0, line.startRow, img.getWidth() - 1, line.endRow);
+		int lastBlankColumn = -1;
+		CharacterRegion open = null;
+		for (int x = 0; x < columnInk.length; x++) {
+			if (columnInk[x] == 0) {
+				if (open != null) {
+					if (x < open.startColumn + minCharacterWidth) {
+						continue; // Too narrow to be a glyph by itself, let it run into the next one.
+					}
+					open.endColumn = x;
+					open.img = img;
+					open.src = src;
+					trimRegion(open, ink);
+					open.bitmap = open.extract();
+					line.sumCharacterWidth += (open.endColumn - open.startColumn);
+					line.sumCharacterHeight += (open.endRow - open.startRow);
+					if (line.shortest == null || line.shortest.height() > open.height()){
+						line.shortest = open;
+					}
+					if (line.tallest == null || line.tallest.height() < open.height()){
+						line.tallest = open;
+					}
+					if (line.widest == null || line.widest.width() < open.width()){
+						line.widest = open;
+					}
+					open = null;
+				}
+				lastBlankColumn = x;
+			} else if (open == null && lastBlankColumn > 0 && x == lastBlankColumn + 1) {
+				open = new CharacterRegion();
+				open.startColumn = lastBlankColumn;
+				open.startRow = line.startRow;
+				open.endRow = line.endRow;
+				open.line = line;
+				line.characterImages.push(open);
+			}
+		}
+	}
 
 	private double getSpaceWidthFraction() {
-		return Double.valueOf(
-				properties.getProperty("spaceWidthFraction", "0.5"))
-				.doubleValue();
+		return spaceWidthFraction;
 	}
 
-	private void recognize(Line line, StringBuffer out) {
-		CandidateBand band = getCandidateBand(line);
+	private boolean isSpaceBetween(CharacterRegion prevCharRegion, CharacterRegion charRegion){
+		if (prevCharRegion == null) {
+			return false;
+		}
+		double widthOfSpace = charRegion.startColumn - prevCharRegion.endColumn;
+		return widthOfSpace > getSpaceWidthFraction() * charRegion.line.avgCharWidth();
+	}
+
+	private GlyphResult space(CharacterRegion prevCharRegion, CharacterRegion charRegion, int rowOffset){
+		Line line = charRegion.line;
+		return GlyphResult.space(line.lineNumber, new Rectangle(prevCharRegion.endColumn, line.startRow + rowOffset, 
+				charRegion.startColumn - prevCharRegion.endColumn, line.endRow - line.startRow));
+	}
+
+	private void recognize(Line line, RecognitionListener listener, Scratch scratch) {
+		recognize(line, 0, line.characterImages.size(), listener, scratch);
+	}
+	
+	private void recognize(Line line, int from, int to, RecognitionListener listener, Scratch scratch) {
+		long start = scratch.start();
+		CandidateBand band = band(line, scratch);
+		scratch.stop(Stage.CANDIDATE_BAND, start);
 		CharacterRegion prevCharRegion = null;
 		int i = 1;
-		for (CharacterRegion charRegion : line.characterImages) {
-			if (prevCharRegion != null) {
-				double widthOfSpace = charRegion.startColumn - prevCharRegion.endColumn;
-				if (widthOfSpace > getSpaceWidthFraction() * line.avgCharWidth()) {
-					out.append(" ");
-				}
+		for (CharacterRegion charRegion : line.characterImages.subList(from, to)) {
+			if (isSpaceBetween(prevCharRegion, charRegion)) {
+				listener.recognized(space(prevCharRegion, charRegion, scratch.rowOffset));
 			}
 			prevCharRegion = charRegion;
 			if (isDebug()){
 				charRegion.write("debug/"+i+".jpg");
 				i++;
 			}
-			recognize(charRegion,band, out);
+			GlyphResult glyph = recognize(charRegion, band, scratch);
+			if (glyph != null){
+				listener.recognized(glyph);
+			}
 		}
-		out.append(System.getProperty("line.separator"));
+		listener.endOfLine(line.lineNumber);
 	}
 
-	private void recognize(CharacterRegion currentRegion, CandidateBand band, StringBuffer out) {
+	private GlyphResult recognize(CharacterRegion currentRegion, CandidateBand band, Scratch scratch) {
 		if (currentRegion.width() < 2){
-			return; // Avoid specs.
+			return null; // Avoid specs.
 		}
-		Set<Character> trials = new TreeSet<Character>();
-		SortedMap<Integer,List<Character>> trainingCharactersByHeightMap = histogram.getTrainingCharactersByHeight();
-		double[] scale = new double []{ (1.0 * band.maxHeight)/ currentRegion.line.tallest.height() ,
-										(1.0 * band.maxWidth)/ currentRegion.line.widest.width() ,
-										}; 
-		Arrays.sort(scale);
+		long start = scratch.start();
+		scratch.metrics.increment(Counter.GLYPHS);
+		GlyphKey glyphKey = (glyphCache == null) ? null : new GlyphKey(currentRegion, band);
+		GlyphResult cached = (glyphKey == null) ? null : glyphCache.get(glyphKey);
+		if (cached != null){
+			scratch.metrics.increment(Counter.GLYPH_CACHE_HITS);
+			if (cached.isAmbiguous()){
+				scratch.metrics.increment(Counter.AMBIGUOUS);
+			}
+			GlyphResult glyph = cached.at(currentRegion.line.lineNumber, bounds(currentRegion, scratch));
+			scratch.stop(Stage.MATCH, start);
+			return glyph;
+		}
+		if (glyphKey != null){
+			scratch.metrics.increment(Counter.GLYPH_CACHE_MISSES);
+		}
+		BitSet trials = scratch.trials;
+		trials.clear();
+		double heightScale = (1.0 * band.maxHeight)/ currentRegion.line.tallest.height();
+		double widthScale = (1.0 * band.maxWidth)/ currentRegion.line.widest.width();
 
 		int lbmaxHeight = band.minHeight;
 		int ubmaxHeight = band.maxHeight; 
 		if (band.maxHeight > band.minHeight){
-			SortedMap<Integer,List<Character>> tmpTailMap = null ;
-			lbmaxHeight = (int)(scale[0] * currentRegion.height());
-			tmpTailMap = trainingCharactersByHeightMap.tailMap(lbmaxHeight);
-			if (!tmpTailMap.isEmpty()){
-				lbmaxHeight = tmpTailMap.firstKey();
+			lbmaxHeight = (int)(Math.min(heightScale, widthScale) * currentRegion.height());
+			int ceiling = histogram.ceilingHeight(lbmaxHeight);
+			if (ceiling >= 0){
+				lbmaxHeight = ceiling;
 			}
-			ubmaxHeight = (int)(scale[1] * currentRegion.height());
-			tmpTailMap = trainingCharactersByHeightMap.tailMap(ubmaxHeight);
-			if (!tmpTailMap.isEmpty()){
-				ubmaxHeight = tmpTailMap.firstKey() ;
+			ubmaxHeight = (int)(Math.max(heightScale, widthScale) * currentRegion.height());
+			ceiling = histogram.ceilingHeight(ubmaxHeight);
+			if (ceiling >= 0){
+				ubmaxHeight = ceiling;
 			}
 		}
+		histogram.addCharactersOfHeight(lbmaxHeight, ubmaxHeight, trials);
+		histogram.addCharactersTallerThan(ubmaxHeight, 1, trials);
 		
-		
-		
-		for (int i = lbmaxHeight ; i <= ubmaxHeight ; i ++ ){
-			List<Character> characters= trainingCharactersByHeightMap.get(i); 
-			if (characters != null){
-				trials.addAll(characters);
-			}
+		BitSet bestKeys = recognize(currentRegion,trials, scratch);
+		if (bestKeys.cardinality() > 1){
+			scratch.metrics.increment(Counter.AMBIGUOUS);
 		}
-		trials.addAll(histogram.getCharactersTallerThan(ubmaxHeight, 1));
-		
-		Set<Character> bestKeys = recognize(currentRegion,trials);
-
-		if (!bestKeys.isEmpty()) {
-			if (bestKeys.size() == 1) {
-				out.append(bestKeys.iterator().next());
-			}else if (bestKeys.size() < 7){
-				out.append(bestKeys);
-			}else {
-				out.append("_");
-			}
+		TreeSet<Character> candidates = new TreeSet<Character>();
+		for (int key = bestKeys.nextSetBit(0) ; key >= 0 ; key = bestKeys.nextSetBit(key + 1)){
+			candidates.add((char)key);
+		}
+		GlyphResult glyph = new GlyphResult(currentRegion.line.lineNumber, bounds(currentRegion, scratch), candidates, scratch.bestDistance);
+		if (glyphKey != null){
+			glyphCache.put(glyphKey, glyph);
 		}
+		scratch.stop(Stage.MATCH, start);
+		return glyph;
+	}
+	
+	private static Rectangle bounds(CharacterRegion region, Scratch scratch){
+		return new Rectangle(region.startColumn, region.startRow + scratch.rowOffset, region.width(), region.height());
 	}
-	private Set<Character> recognize(CharacterRegion currentRegion,Collection<Character> against){
-		Set<Character> bestKeys = new HashSet<Character>();
+	
+	/**
+	 * Matches the region against the characters in against. The best matches are returned in a set owned by the 
+	 * scratch, which is overwritten by the next call.
+	 */
+	private BitSet recognize(CharacterRegion currentRegion, BitSet against, Scratch scratch){
+		BitSet candidates = scratch.candidates;
+		candidates.clear();
+		candidates.or(against);
+		int offered = candidates.cardinality();
+		glyphIndex.retainCompatible(currentRegion, candidates);
+		int compatible = candidates.cardinality();
+		glyphIndex.retainNearest(currentRegion, candidates, candidateLimit, scratch.nearest);
+		scratch.metrics.add(Counter.PRUNED_BY_POSITION, offered - compatible);
+		scratch.metrics.add(Counter.PRUNED_BY_FEATURES, compatible - candidates.cardinality());
+		
+		BitSet bestKeys = scratch.bestKeys;
+		bestKeys.clear();
 		double bestError = Double.POSITIVE_INFINITY;
-		for (Character key : against) {
-			CharacterRegion trainedRegion = trainingMap.get(key); 
-			double error = distanceBetween(trainedRegion, currentRegion);
+		for (int key = candidates.nextSetBit(0) ; key >= 0 ; key = candidates.nextSetBit(key + 1)) {
+			double error = distanceBetween((char)key, currentRegion, bestError, scratch);
 			
 			if (error > bestError) {
 				//
 			} else if (error < bestError) {
 				bestError = error;
 				bestKeys.clear();
-				bestKeys.add(key);
+				bestKeys.set(key);
 			} else {
-				bestKeys.add(key);
+				bestKeys.set(key);
 			}
 
 		}
+		scratch.bestDistance = bestError;
 		return bestKeys;
 	}
 
@@ -480,89 +635,702 @@ public class TextRecognizer {
 		return false;
 	}
 	
-	private double distanceBetween(CharacterRegion trainedRegion, CharacterRegion testingRegion) {
-		CharacterRegion r1 = trainedRegion;
+	private double distanceBetween(char key, CharacterRegion testingRegion, double limit, Scratch scratch) {
+		CharacterRegion r1 = model.getTemplate(key);
 		CharacterRegion r2 = testingRegion;
+		scratch.metrics.increment(Counter.COMPARISONS);
 
 		if (wayOff(r1, r2)){
+			scratch.metrics.increment(Counter.PRUNED_BY_SIZE);
 			return Double.POSITIVE_INFINITY;
 		}
-		//NEW 
-		if (r1.startRow - r1.line.startRow < r1.line.endRow - r1.startRow) { //r1 starts near line top.
-			if (r2.startRow - r2.line.startRow > r2.line.endRow - r2.startRow ){ // r2 starts near line floor.
-				return Double.POSITIVE_INFINITY;
-			}
-		}else if (r1.startRow - r1.line.startRow > r1.line.endRow - r1.startRow) {
-			if (r2.startRow - r2.line.startRow < r2.line.endRow - r2.startRow ){
-				return Double.POSITIVE_INFINITY;
-			}
-		}
-		if (r1.line.endRow - r1.endRow < r1.endRow - r1.line.startRow){
-			if (r2.line.endRow - r2.endRow > r2.endRow - r2.line.startRow){
-				return Double.POSITIVE_INFINITY;
-			}
-		}else if (r1.line.endRow - r1.endRow > r1.endRow - r1.line.startRow){
-			if (r2.line.endRow - r2.endRow < r2.endRow - r2.line.startRow){
-				return Double.POSITIVE_INFINITY;
-			}
-		}
 		
-		BufferedImage i1 = r1.croppedImage(); 
-		BufferedImage i2 = r2.croppedImage();
+		BinaryImage i1 = r1.bitmap(); 
+		BinaryImage i2 = r2.bitmap();
 		
-		if (r2.height() > r1.height()){
-			i1 = threshold(ImageUtil.scale(i1, r2.width(),r2.height()));
-			i2 = threshold(i2);
+		if (model.isNormalizingGlyphs()){
+			i1 = model.getNormalizedTemplate(key);
+			i2 = scratch.normalized(r2);
+		}else if (r2.height() > r1.height()){
+			i1 = model.getScaledTemplate(key, r2.width(), r2.height());
 		}else {
-			i1 = threshold(i1);
-			i2 = threshold(ImageUtil.scale(i2, r1.width(),r1.height()));
+			i2 = scratch.scaled(r2, r1.width(),r1.height());
 		}
 	
 		
-		return ImageUtil.distanceBetween(i1, i2);
+		return ImageUtil.distanceBetween(i1, i2, limit);
+	}
+	
+	/**
+	 * Number of pixels distanceBetween compared the glyph at, which its distance can be at most: the normalized
+	 * size, or else the larger of the glyph and the template of its first candidate.
+	 */
+	int getComparedArea(GlyphResult glyph) {
+		Rectangle bounds = glyph.getBounds();
+		if (model.isNormalizingGlyphs()){
+			return model.getNormalizedGlyphWidth() * model.getNormalizedGlyphHeight();
+		}
+		if (!glyph.getCandidates().isEmpty()){
+			CharacterRegion template = model.getTemplate(glyph.getCandidates().first());
+			if (bounds.height <= template.height()){
+				return template.width() * template.height();
+			}
+		}
+		return bounds.width * bounds.height;
 	}
+	
 	public StringBuffer recognize(File in) throws IOException{
 		return recognize(in,1);
 	}
 	public StringBuffer recognize(File in,int minCharWidth) throws IOException {
-		return recognize(ImageIO.read(in),minCharWidth);
+		Scratch scratch = new Scratch();
+		long start = scratch.start();
+		BufferedImage img = ImageIO.read(in);
+		scratch.stop(Stage.DECODE, start);
+		return recognize(img, minCharWidth, scratch);
 	}
 	public StringBuffer recognize(InputStream in) throws IOException{
 		return recognize(in,1);
 	}
 	public StringBuffer recognize(InputStream in,int minCharWidth) throws IOException {
-		return recognize(ImageIO.read(in),minCharWidth);
+		Scratch scratch = new Scratch();
+		long start = scratch.start();
+		BufferedImage img = ImageIO.read(in);
+		scratch.stop(Stage.DECODE, start);
+		return recognize(img, minCharWidth, scratch);
 	}
 	public StringBuffer recognize(BufferedImage in) throws IOException{
 		return recognize(in, 1);
 	}
 	public StringBuffer recognize(BufferedImage in, int minCharWidth) throws IOException {
-		List<Line> lines = getLines(in,minCharWidth);
-
+		return recognize(in, minCharWidth, new Scratch());
+	}
+	
+	private StringBuffer recognize(BufferedImage in, int minCharWidth, Scratch scratch) {
 		StringBuffer out = new StringBuffer();
+		recognize(getLines(in, minCharWidth, scratch), new TextWriter(out), scratch);
+		return out;
+	}
+	
+	/**
+	 * Recognizes the image, handing each glyph to the listener as soon as it is matched.
+	 */
+	public void recognize(BufferedImage in, int minCharWidth, RecognitionListener listener) {
+		Scratch scratch = new Scratch();
+		recognize(getLines(in, minCharWidth, scratch), listener, scratch);
+	}
+	
+	public StringBuffer recognize(ByteBuffer gray, int width, int height, int stride, int minCharWidth) {
+		StringBuffer out = new StringBuffer();
+		recognize(gray, width, height, stride, minCharWidth, new TextWriter(out));
+		return out;
+	}
+	
+	/**
+	 * Recognizes raw 8 bit grayscale pixels, darker levels being lower. Row y starts y * stride bytes after the 
+	 * buffer's position. The pixels are thresholded straight from the buffer, which may be direct or mapped, so 
+	 * nothing is decoded or copied into an image. A level is ink when it is below the threshold. 
+	 */
+	public void recognize(ByteBuffer gray, int width, int height, int stride, int minCharWidth, RecognitionListener listener) {
+		Scratch scratch = new Scratch();
+		long start = scratch.start();
+		int threshold = otsuThreshold ? ImageUtil.otsuThreshold(gray, width, height, stride) : getMinColorThreshold();
+		BinaryImage img = ImageUtil.binarize(gray, width, height, stride, threshold);
+		scratch.stop(Stage.THRESHOLD, start);
+		recognize(getLines(img, null, minCharWidth, scratch), listener, scratch);
+	}
+	
+	/**
+	 * Recognizes raw 8 bit grayscale pixels stored in a file from offset on, laid out as for 
+	 * {@link #recognize(ByteBuffer, int, int, int, int, RecognitionListener)}. The pixels are mapped into memory 
+	 * rather than read.
+	 */
+	public StringBuffer recognize(File raw, long offset, int width, int height, int stride, int minCharWidth) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(raw, "r");
+		try {
+			long size = (long)(height - 1) * stride + width;
+			ByteBuffer gray = file.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, size);
+			return recognize(gray, width, height, stride, minCharWidth);
+		}finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Thresholds and segments the image once, so that regions of it can be recognized repeatedly with 
+	 * {@link #recognize(PageLayout, Rectangle, RecognitionListener)}.
+	 */
+	public PageLayout layout(BufferedImage in, int minCharWidth) {
+		Scratch scratch = new Scratch();
+		long start = scratch.start();
+		BinaryImage img = binarize(in);
+		scratch.stop(Stage.THRESHOLD, start);
+		PageLayout layout = new PageLayout(img, getLines(img, in, minCharWidth, scratch));
+		scratch.report();
+		return layout;
+	}
+	
+	public StringBuffer recognize(PageLayout layout, Rectangle region) {
+		StringBuffer out = new StringBuffer();
+		recognize(layout, region, new TextWriter(out));
+		return out;
+	}
+	
+	/**
+	 * Recognizes the glyphs of a laid out page that are in the region. Only matching is done; the page is not 
+	 * thresholded or segmented again.
+	 */
+	public void recognize(PageLayout layout, Rectangle region, RecognitionListener listener) {
+		Scratch scratch = new Scratch();
+		List<Line> lines = layout.getLines(region);
+		estimatePageBand(lines, scratch);
 		for (Line line : lines) {
-			recognize(line, out);
+			recognize(line, PageLayout.first(line, region), PageLayout.last(line, region), listener, scratch);
 		}
+		scratch.report();
+	}
+	
+	public StringBuffer recognize(List<Line> lines) {
+		StringBuffer out = new StringBuffer();
+		recognize(lines, new TextWriter(out));
 		return out;
 	}
-
-	private void load(String font, Properties properties) {
+	
+	public void recognize(List<Line> lines, RecognitionListener listener) {
+		recognize(lines, listener, new Scratch());
+	}
+	
+	private void recognize(List<Line> lines, RecognitionListener listener, Scratch scratch) {
+		estimatePageBand(lines, scratch);
+		for (Line line : lines) {
+			recognize(line, listener, scratch);
+		}
+		scratch.report();
+	}
+	
+	public void recognizeInStrips(File in, int minCharWidth, Appendable out) throws IOException {
+		recognizeInStrips(ImageIO.createImageInputStream(in), minCharWidth, getStripHeight(), out);
+	}
+	
+	public void recognizeInStrips(InputStream in, int minCharWidth, Appendable out) throws IOException {
+		recognizeInStrips(ImageIO.createImageInputStream(in), minCharWidth, getStripHeight(), out);
+	}
+	
+	public void recognizeInStrips(ImageInputStream in, int minCharWidth, int stripHeight, Appendable out) throws IOException {
 		try {
-			properties.load(getClass().getResourceAsStream(
-					"/com/venky/ocr/" + font + ".properties"));
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+			recognizeInStrips(in, minCharWidth, stripHeight, new TextWriter(out));
+		}catch (UncheckedIOException e){
+			throw e.getCause();
 		}
 	}
-
-	private BufferedImage read(String name) {
-		BufferedImage img;
+	
+	/**
+	 * Recognizes a tall image a strip of rows at a time, handing each line to the listener as soon as the blank 
+	 * row below it has been read. The image is decoded once, top to bottom. When it is decoded in a single pass, 
+	 * as baseline JPEGs and PNGs that are not interlaced are, each strip is thresholded as soon as it has been 
+	 * decoded and its pixels are dropped. Only the rows of the line being read are then held in memory, so memory 
+	 * use depends on the width of the image and the height of its lines, not on its height. Progressive and 
+	 * interlaced images are decoded whole before they are read in strips. As no strip shows the whole page, strips 
+	 * are always thresholded at minColorThreshold, whatever the thresholdMode.
+	 */
+	public void recognizeInStrips(ImageInputStream in, int minCharWidth, final int stripHeight, RecognitionListener listener) throws IOException {
+		if (in == null){
+			throw new IOException("Cannot read image");
+		}
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+		if (!readers.hasNext()){
+			throw new IOException("No reader for image");
+		}
+		ImageReader reader = readers.next();
 		try {
-			img = ImageIO.read(getClass().getResourceAsStream(name));
-		} catch (IOException e) {
+			reader.setInput(in, true, false);
+			int height = reader.getHeight(0);
+			final Strips strips = new Strips(reader.getWidth(0), stripHeight, minCharWidth, listener);
+			final StreamedImage streamed = StreamedImage.create(reader);
+			ImageReadParam param = reader.getDefaultReadParam();
+			if (streamed != null){
+				param.setDestination(streamed.getImage());
+				reader.addIIOReadUpdateListener(new IIOReadUpdateListener() {
+					private int decoded = 0; // Rows above this have been decoded.
+					
+					public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width, int height, 
+							int periodX, int periodY, int[] bands) {
+						if (periodY == 1 && minY <= decoded){
+							decoded = Math.max(decoded, minY + height);
+						}
+						if (decoded - strips.done >= stripHeight){
+							strips.add(streamed, decoded);
+							streamed.release(strips.done);
+						}
+					}
+					
+					public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass, 
+							int minX, int minY, int periodX, int periodY, int[] bands) {
+					}
+					
+					public void passComplete(ImageReader source, BufferedImage theImage) {
+					}
+					
+					public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass, 
+							int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+					}
+					
+					public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width, 
+							int height, int periodX, int periodY, int[] bands) {
+					}
+					
+					public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+					}
+				});
+			}
+			long start = strips.scratch.start();
+			BufferedImage page = reader.read(0, param);
+			strips.scratch.stop(Stage.DECODE, start + strips.busy);
+			if (streamed != null && page == streamed.getImage()){
+				strips.add(streamed, height);
+			}else {
+				strips.add(page, height);
+			}
+			strips.scratch.report();
+		}finally {
+			reader.dispose();
+			in.close();
+		}
+	}
+	
+	/**
+	 * Lines of an image found as its rows come in. Rows are thresholded into a window that keeps only the rows of 
+	 * the line still open, and each line is recognized once the blank row below it arrives.
+	 */
+	private class Strips {
+		private final int stripHeight;
+		private final int minCharWidth;
+		private final RecognitionListener listener;
+		private final Scratch scratch = new Scratch();
+		private BinaryImage window;
+		private int top = 0; // Page row of the first row in window.
+		private int filled = 0;
+		private int done = 0; // Rows above this have been read.
+		private int lastBlankRow = -1;
+		private int lineNumber = 0;
+		private Line open = null;
+		private long busy = 0; // Time spent reading rows while the image was being decoded.
+		
+		Strips(int width, int stripHeight, int minCharWidth, RecognitionListener listener){
+			this.window = new BinaryImage(width, 4 * stripHeight);
+			this.stripHeight = stripHeight;
+			this.minCharWidth = minCharWidth;
+			this.listener = listener;
+		}
+		
+		/**
+		 * Reads the rows of the page from the first row not yet read up to but not including row toY, a strip at a time.
+		 */
+		void add(BufferedImage page, int toY){
+			add(page, null, toY);
+		}
+		
+		void add(StreamedImage page, int toY){
+			add(null, page, toY);
+		}
+		
+		private void add(BufferedImage page, StreamedImage streamed, int toY){
+			long begin = scratch.start();
+			int width = window.getWidth();
+			for (int stripTop = done ; stripTop < toY ; stripTop += stripHeight){
+				int rows = Math.min(stripHeight, toY - stripTop);
+				long start = scratch.start();
+				BufferedImage strip = (streamed != null) ? streamed.getRows(stripTop, rows) : page.getSubimage(0, stripTop, width, rows);
+				BinaryImage bits = ImageUtil.binarize(strip, getMinColorThreshold());
+				scratch.stop(Stage.THRESHOLD, start);
+				
+				int keepFrom = (open != null) ? open.startRow : (lastBlankRow >= 0 ? lastBlankRow : top + filled);
+				int kept = top + filled - keepFrom;
+				if (kept + rows > window.getHeight()){
+					BinaryImage larger = new BinaryImage(width, Math.max(window.getHeight(), 2 * (kept + rows)));
+					window.copyRows(keepFrom - top, larger, 0, kept);
+					window = larger;
+				}else if (keepFrom > top){
+					window.copyRows(keepFrom - top, window, 0, kept);
+				}
+				top = keepFrom;
+				filled = kept;
+				bits.copyRows(0, window, filled, rows);
+				filled += rows;
+				
+				int[] rowInk = bits.rowProfile();
+				for (int r = 0 ; r < rows ; r ++){
+					int y = stripTop + r;
+					if (rowInk[r] == 0) {
+						if (open != null) {
+							open.startRow -= top;
+							open.endRow = y - top;
+							start = scratch.start();
+							segmentLine(window, null, open, minCharWidth);
+							scratch.stop(Stage.SEGMENT, start);
+							if (!isEmpty(open)){
+								scratch.metrics.increment(Counter.LINES);
+								scratch.rowOffset = top;
+								recognize(open, listener, scratch);
+							}
+							open = null;
+						}
+						lastBlankRow = y;
+					} else if (open == null && lastBlankRow > 0 && y == lastBlankRow + 1) {
+						open = new Line();
+						open.startRow = lastBlankRow;
+						open.lineNumber = ++lineNumber;
+					}
+				}
+			}
+			done = Math.max(done, toY);
+			busy += scratch.start() - begin;
+		}
+	}
+	
+	private int getStripHeight(){
+		return stripHeight;
+	}
+	
+	private static final int GLYPHS_PER_TASK = 32;
+	
+	public StringBuffer recognizeInParallel(BufferedImage in, int minCharWidth) {
+		return recognize(in, minCharWidth, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Recognizes the lines and glyphs of the image on the given executor. Candidate bands of all lines are 
+	 * worked out first, then each run of up to GLYPHS_PER_TASK glyphs of a line is matched as a task of its own, 
+	 * and the results are stitched back in page order on the calling thread. Tasks never wait on each other, so 
+	 * any executor, even a single threaded one, is safe to use.
+	 */
+	public StringBuffer recognize(BufferedImage in, int minCharWidth, Executor executor) {
+		StringBuffer out = new StringBuffer();
+		recognize(in, minCharWidth, executor, new TextWriter(out));
+		return out;
+	}
+	
+	public void recognize(BufferedImage in, int minCharWidth, Executor executor, RecognitionListener listener) {
+		Scratch scratch = new Scratch();
+		List<Line> lines = getLines(in, minCharWidth, scratch);
+		List<Scratch> taskScratches = new ArrayList<Scratch>();
+		estimatePageBand(lines, scratch);
+		
+		List<Future<CandidateBand>> bands = new ArrayList<Future<CandidateBand>>();
+		for (final Line line : lines) {
+			final Scratch taskScratch = new Scratch(scratch);
+			taskScratches.add(taskScratch);
+			bands.add(submit(executor, new Callable<CandidateBand>() {
+				public CandidateBand call() {
+					long start = taskScratch.start();
+					CandidateBand band = band(line, taskScratch);
+					taskScratch.stop(Stage.CANDIDATE_BAND, start);
+					return band;
+				}
+			}));
+		}
+		
+		List<List<Future<List<GlyphResult>>>> runs = new ArrayList<List<Future<List<GlyphResult>>>>();
+		for (int l = 0 ; l < lines.size() ; l ++) {
+			final Line line = lines.get(l);
+			final CandidateBand band = get(bands.get(l));
+			List<Future<List<GlyphResult>>> lineRuns = new ArrayList<Future<List<GlyphResult>>>();
+			for (int from = 0 ; from < line.characterImages.size() ; from += GLYPHS_PER_TASK) {
+				final int runFrom = from;
+				final int runTo = Math.min(from + GLYPHS_PER_TASK, line.characterImages.size());
+				final Scratch taskScratch = new Scratch();
+				taskScratches.add(taskScratch);
+				lineRuns.add(submit(executor, new Callable<List<GlyphResult>>() {
+					public List<GlyphResult> call() {
+						return recognize(line, band, runFrom, runTo, taskScratch);
+					}
+				}));
+			}
+			runs.add(lineRuns);
+		}
+		
+		for (int l = 0 ; l < lines.size() ; l ++) {
+			List<GlyphResult> lineResults = new ArrayList<GlyphResult>();
+			for (Future<List<GlyphResult>> run : runs.get(l)) {
+				lineResults.addAll(get(run));
+			}
+			recognized(lines.get(l), lineResults, listener);
+		}
+		for (Scratch taskScratch : taskScratches){
+			scratch.metrics.add(taskScratch.metrics);
+		}
+		scratch.report();
+	}
+	
+	/**
+	 * Matches the glyphs of the line from index from up to but not including index to. Specks too small to match 
+	 * give null results.
+	 */
+	List<GlyphResult> recognize(Line line, CandidateBand band, int from, int to) {
+		return recognize(line, band, from, to, new Scratch());
+	}
+	
+	private List<GlyphResult> recognize(Line line, CandidateBand band, int from, int to, Scratch scratch) {
+		List<GlyphResult> glyphs = new ArrayList<GlyphResult>(to - from);
+		for (int g = from ; g < to ; g ++) {
+			glyphs.add(recognize(line.characterImages.get(g), band, scratch));
+		}
+		return glyphs;
+	}
+	
+	/**
+	 * Hands the results of every glyph of the line to the listener, with spaces where the gaps between glyphs 
+	 * are wide enough.
+	 */
+	void recognized(Line line, List<GlyphResult> glyphs, RecognitionListener listener) {
+		CharacterRegion prevCharRegion = null;
+		for (int g = 0 ; g < glyphs.size() ; g ++) {
+			CharacterRegion charRegion = line.characterImages.get(g);
+			if (isSpaceBetween(prevCharRegion, charRegion)) {
+				listener.recognized(space(prevCharRegion, charRegion, 0));
+			}
+			prevCharRegion = charRegion;
+			if (glyphs.get(g) != null){
+				listener.recognized(glyphs.get(g));
+			}
+		}
+		listener.endOfLine(line.lineNumber);
+	}
+	
+	/**
+	 * Writes results as the text the StringBuffer returning recognize methods produce.
+	 */
+	static class TextWriter implements RecognitionListener {
+		private final Appendable out;
+		
+		TextWriter(Appendable out){
+			this.out = out;
+		}
+		
+		public void recognized(GlyphResult glyph) {
+			append(glyph.toString());
+		}
+		
+		public void endOfLine(int lineNumber) {
+			append(System.getProperty("line.separator"));
+		}
+		
+		private void append(String text){
+			try {
+				out.append(text);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+	
+	static <T> Future<T> submit(Executor executor, Callable<T> task){
+		FutureTask<T> future = new FutureTask<T>(task);
+		executor.execute(future);
+		return future;
+	}
+	
+	static <T> T get(Future<T> future){
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	/**
+	 * The candidate band of the line. Lines of a page whose shortest, tallest and widest glyphs have the same sizes 
+	 * and positions in their lines share a band, which is worked out once. With a page band, every line uses it.
+	 */
+	private CandidateBand band(Line line, Scratch scratch){
+		if (scratch.pageBand != null){
+			scratch.metrics.increment(Counter.BANDS_REUSED);
+			return scratch.pageBand;
+		}
+		BandKey key = new BandKey(line);
+		CandidateBand band = scratch.bands.get(key);
+		if (band != null){
+			scratch.metrics.increment(Counter.BANDS_REUSED);
+			return band;
+		}
+		band = getCandidateBand(line, scratch);
+		CandidateBand raced = scratch.bands.putIfAbsent(key, band);
+		return (raced == null) ? band : raced;
+	}
+	
+	/**
+	 * With pageBandSampleLines set, works out the bands of that many lines spread over the page and makes the one 
+	 * found most often the band of every line. Meant for pages set in one font size.
+	 */
+	private void estimatePageBand(List<Line> lines, Scratch scratch){
+		if (pageBandSampleLines <= 0 || lines.isEmpty()){
+			return;
+		}
+		long start = scratch.start();
+		int samples = Math.min(pageBandSampleLines, lines.size());
+		List<CandidateBand> bands = new ArrayList<CandidateBand>();
+		for (int i = 0 ; i < samples ; i ++){
+			bands.add(band(lines.get(i * lines.size() / samples), scratch));
+		}
+		CandidateBand pageBand = null;
+		int pageBandCount = 0;
+		for (CandidateBand band : bands){
+			int count = 0;
+			for (CandidateBand other : bands){
+				if (band.minHeight == other.minHeight && band.maxHeight == other.maxHeight && band.maxWidth == other.maxWidth){
+					count++;
+				}
+			}
+			if (count > pageBandCount){
+				pageBand = band;
+				pageBandCount = count;
+			}
+		}
+		scratch.pageBand = pageBand;
+		scratch.stop(Stage.CANDIDATE_BAND, start);
+	}
+	
+	/**
+	 * Everything the match of a glyph depends on: its pixels, where it sits in its line, the sizes its line is 
+	 * scaled by and the band of training heights it is matched against. 
+	 */
+	static final class GlyphKey {
+		private final long[] bits;
+		private final int[] key;
+		private final int hash;
+		
+		GlyphKey(CharacterRegion region, CandidateBand band){
+			BinaryImage bitmap = region.bitmap();
+			bits = bitmap.words();
+			key = new int[]{ bitmap.getWidth(), bitmap.getHeight(), GlyphIndex.position(region), 
+					region.line.tallest.height(), region.line.widest.width(), band.minHeight, band.maxHeight, band.maxWidth };
+			hash = 31 * Arrays.hashCode(key) + Arrays.hashCode(bits);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof GlyphKey)){
+				return false;
+			}
+			GlyphKey other = (GlyphKey)obj;
+			return hash == other.hash && Arrays.equals(key, other.key) && Arrays.equals(bits, other.bits);
+		}
+	}
+	
+	private static final class BandKey {
+		private final int[] key;
+		
+		BandKey(Line line){
+			key = new int[]{ line.shortest.width(), line.shortest.height(), GlyphIndex.position(line.shortest), 
+					line.tallest.width(), line.tallest.height(), GlyphIndex.position(line.tallest), 
+					line.widest.width(), line.widest.height(), GlyphIndex.position(line.widest) };
+		}
+		
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(key);
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof BandKey) && Arrays.equals(key, ((BandKey)obj).key);
+		}
+	}
+	
+	/**
+	 * Working state of one recognition call. It is never shared between threads. Calls split into tasks give 
+	 * each task a scratch of its own that shares the bands of the page.
+	 */
+	private class Scratch {
+		private final ConcurrentMap<BandKey, CandidateBand> bands;
+		private CandidateBand pageBand;
+		
+		Scratch(){
+			this.bands = new ConcurrentHashMap<BandKey, CandidateBand>();
+		}
+		
+		Scratch(Scratch page){
+			this.bands = page.bands;
+			this.pageBand = page.pageBand;
+		}
+		
+		private final MetricsListener listener = metricsListener;
+		private final boolean timed = (listener != MetricsListener.NONE);
+		private final RecognitionMetrics metrics = new RecognitionMetrics();
+		private final BitSet trials = new BitSet();
+		private final BitSet candidates = new BitSet();
+		private final BitSet bestKeys = new BitSet();
+		private final GlyphIndex.Scratch nearest = glyphIndex.newScratch();
+		private int rowOffset = 0;
+		private double bestDistance = Double.POSITIVE_INFINITY;
+		private GlyphScaler scaler = null;
+		private CharacterRegion normalizedRegion = null;
+		private BinaryImage normalized = null;
+		private CharacterRegion scaledRegion = null;
+		private final BinaryImage[] scaled = new BinaryImage[8];
+		private int numScaled = 0;
+		
+		long start(){
+			return timed ? System.nanoTime() : 0;
+		}
+		
+		long stop(Stage stage, long start){
+			if (!timed){
+				return 0;
+			}
+			long now = System.nanoTime();
+			metrics.add(stage, now - start);
+			return now;
+		}
+		
+		void report(){
+			listener.recognized(metrics);
+		}
+		
+		GlyphScaler scaler(){
+			if (scaler == null){
+				scaler = GlyphScaler.get(model.isNearestScaling());
+			}
+			return scaler;
+		}
+		
+		BinaryImage normalized(CharacterRegion region){
+			if (normalizedRegion != region){
+				normalized = scaler().scale(region.bitmap(), model.getNormalizedGlyphWidth(), model.getNormalizedGlyphHeight(), getMinColorThreshold(), normalized);
+				normalizedRegion = region;
+			}
+			return normalized;
+		}
+		
+		/**
+		 * The region scaled to w x h. The last few sizes asked of the same region are remembered, as most 
+		 * templates share a handful of sizes. Images are reused once the region changes. 
+		 */
+		BinaryImage scaled(CharacterRegion region, int w, int h){
+			if (scaledRegion != region){
+				scaledRegion = region;
+				numScaled = 0;
+			}
+			for (int i = 0 ; i < numScaled ; i ++){
+				if (scaled[i].getWidth() == w && scaled[i].getHeight() == h){
+					return scaled[i];
+				}
+			}
+			int slot = (numScaled < scaled.length) ? numScaled++ : scaled.length - 1;
+			scaled[slot] = scaler().scale(region.bitmap(), w, h, getMinColorThreshold(), scaled[slot]);
+			return scaled[slot];
 		}
-		return img;
 	}
 
 	public static class CandidateBand {
@@ -575,18 +1343,22 @@ public class TextRecognizer {
 	}
 	
 	public CandidateBand getCandidateBand(Line line){
-		Set<Character> shortestCharacterChoices = recognize(line.shortest,trainingMap.keySet());
-		int minHeight = histogram.getTrainingCharactersByHeight().lastKey();
-		for (Character choice:shortestCharacterChoices){
-			if (minHeight > trainingMap.get(choice).height()){
-				minHeight = trainingMap.get(choice).height();
+		return getCandidateBand(line, new Scratch());
+	}
+	
+	private CandidateBand getCandidateBand(Line line, Scratch scratch){
+		BitSet shortestCharacterChoices = recognize(line.shortest, model.getCharacters(), scratch);
+		int minHeight = histogram.getMaxHeight();
+		for (int choice = shortestCharacterChoices.nextSetBit(0) ; choice >= 0 ; choice = shortestCharacterChoices.nextSetBit(choice + 1)){
+			if (minHeight > model.getTemplate((char)choice).height()){
+				minHeight = model.getTemplate((char)choice).height();
 			}
 		}
-		Set<Character> widestCharacterChoices = recognize(line.widest, trainingMap.keySet());
-		int maxWidth = histogram.getTrainingCharactersByWidth().firstKey(); 
-		for (Character choice:widestCharacterChoices){
-			if (maxWidth < trainingMap.get(choice).width()){
-				maxWidth = trainingMap.get(choice).width();
+		BitSet widestCharacterChoices = recognize(line.widest, model.getCharacters(), scratch);
+		int maxWidth = histogram.getMinWidth(); 
+		for (int choice = widestCharacterChoices.nextSetBit(0) ; choice >= 0 ; choice = widestCharacterChoices.nextSetBit(choice + 1)){
+			if (maxWidth < model.getTemplate((char)choice).width()){
+				maxWidth = model.getTemplate((char)choice).width();
 			}
 		}
 		
@@ -594,16 +1366,19 @@ public class TextRecognizer {
 		
 		int maxHeightCandidate = minHeight ;
 		if (line.tallest.height() > line.shortest.height()){
-			SortedMap<Integer,List<Character>> tailMap = histogram.getTrainingCharactersByHeight().tailMap((int)(hscale * line.tallest.height()));
-			if (!tailMap.isEmpty()){
-				maxHeightCandidate = tailMap.firstKey() ;
+			int ceiling = histogram.ceilingHeight((int)(hscale * line.tallest.height()));
+			if (ceiling >= 0){
+				maxHeightCandidate = ceiling;
 			}
 		}
-		Set<Character> tallestCharacterChoices = recognize(line.tallest, histogram.getCharactersTallerThan(maxHeightCandidate-1,2));
-		int maxHeight = histogram.getTrainingCharactersByHeight().firstKey();
-		for (Character choice: tallestCharacterChoices){
-			if(maxHeight < trainingMap.get(choice).height()){
-				maxHeight = trainingMap.get(choice).height();
+		BitSet taller = scratch.trials;
+		taller.clear();
+		histogram.addCharactersTallerThan(maxHeightCandidate-1, 2, taller);
+		BitSet tallestCharacterChoices = recognize(line.tallest, taller, scratch);
+		int maxHeight = histogram.getMinHeight();
+		for (int choice = tallestCharacterChoices.nextSetBit(0) ; choice >= 0 ; choice = tallestCharacterChoices.nextSetBit(choice + 1)){
+			if(maxHeight < model.getTemplate((char)choice).height()){
+				maxHeight = model.getTemplate((char)choice).height();
 			}
 		}
 			
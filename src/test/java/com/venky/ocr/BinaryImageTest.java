@@ -0,0 +1,165 @@
+package com.venky.ocr;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class BinaryImageTest {
+	@Test
+	public void testBlankChecks(){
+		BinaryImage img = new BinaryImage(130, 3);
+		img.setInk(70, 1);
+		Assert.assertTrue(img.isRowBlank(0, 0, 129));
+		Assert.assertFalse(img.isRowBlank(1, 0, 129));
+		Assert.assertTrue(img.isRowBlank(1, 71, 129));
+		Assert.assertTrue(img.isRowBlank(1, 0, 69));
+		Assert.assertFalse(img.isColumnBlank(70, 0, 2));
+		Assert.assertTrue(img.isColumnBlank(69, 0, 2));
+	}
+
+	@Test
+	public void testCrop(){
+		BinaryImage img = new BinaryImage(200, 4);
+		img.setInk(63, 0);
+		img.setInk(64, 1);
+		img.setInk(150, 3);
+		BinaryImage cropped = img.crop(60, 0, 91, 4);
+		Assert.assertTrue(cropped.isInk(3, 0));
+		Assert.assertTrue(cropped.isInk(4, 1));
+		Assert.assertTrue(cropped.isInk(90, 3));
+		Assert.assertFalse(cropped.isRowBlank(3, 0, 90));
+		Assert.assertTrue(cropped.isRowBlank(2, 0, 90));
+	}
+
+	@Test
+	public void testDistance(){
+		BinaryImage a = new BinaryImage(70, 2);
+		BinaryImage b = new BinaryImage(70, 2);
+		a.setInk(0, 0);
+		a.setInk(69, 0);
+		b.setInk(69, 0);
+		b.setInk(5, 1);
+		b.setInk(6, 1);
+		Assert.assertEquals(3.0, ImageUtil.distanceBetween(a, b));
+		Assert.assertTrue(ImageUtil.distanceBetween(a, b, 0) > 0);
+	}
+
+	@Test
+	public void testProfiles(){
+		BinaryImage img = new BinaryImage(100, 3);
+		img.setInk(1, 0);
+		img.setInk(65, 0);
+		img.setInk(65, 2);
+		int[] rows = img.rowProfile();
+		Assert.assertEquals(2, rows[0]);
+		Assert.assertEquals(0, rows[1]);
+		Assert.assertEquals(1, rows[2]);
+		int[] columns = img.columnProfile(0, 2);
+		Assert.assertEquals(1, columns[1]);
+		Assert.assertEquals(2, columns[65]);
+		Assert.assertEquals(1, img.columnProfile(1, 2)[65]);
+	}
+
+	@Test
+	public void testSummedAreaTable(){
+		BinaryImage img = new BinaryImage(10, 10);
+		img.setInk(3, 4);
+		img.setInk(5, 4);
+		img.setInk(5, 6);
+		SummedAreaTable ink = new SummedAreaTable(img, 2, 3, 8, 8);
+		Assert.assertEquals(3, ink.ink(2, 3, 8, 8));
+		Assert.assertEquals(2, ink.ink(3, 4, 5, 4));
+		Assert.assertEquals(2, ink.ink(5, 3, 5, 8));
+		Assert.assertTrue(ink.isRowBlank(5, 2, 8));
+		Assert.assertTrue(ink.isColumnBlank(4, 3, 8));
+		Assert.assertFalse(ink.isColumnBlank(3, 3, 4));
+	}
+
+	@Test
+	public void testGlyphScalerMatchesScale(){
+		Random random = new Random(42);
+		GlyphScaler scaler = new GlyphScaler(false);
+		BinaryImage reuse = null;
+		int[][] sizes = {{20, 30, 14, 21}, {9, 12, 18, 25}, {31, 40, 31, 40}, {12, 9, 5, 7}, {20, 30, 14, 21}};
+		for (int[] size : sizes){
+			BinaryImage glyph = new BinaryImage(size[0], size[1]);
+			for (int i = 0 ; i < size[0] * size[1] / 3 ; i ++){
+				glyph.setInk(random.nextInt(size[0]), random.nextInt(size[1]));
+			}
+			BinaryImage expected = ImageUtil.scale(glyph, size[2], size[3], 127);
+			reuse = scaler.scale(glyph, size[2], size[3], 127, reuse);
+			Assert.assertEquals(0.0, ImageUtil.distanceBetween(expected, reuse));
+		}
+	}
+
+	@Test
+	public void testResample(){
+		BinaryImage img = new BinaryImage(3, 2);
+		img.setInk(0, 0);
+		img.setInk(2, 1);
+		Assert.assertEquals(0.0, ImageUtil.distanceBetween(img, ImageUtil.resample(img, 3, 2)));
+		
+		BinaryImage doubled = ImageUtil.resample(img, 6, 4);
+		for (int y = 0 ; y < 4 ; y ++){
+			for (int x = 0 ; x < 6 ; x ++){
+				Assert.assertEquals(img.isInk(x / 2, y / 2), doubled.isInk(x, y));
+			}
+		}
+		Assert.assertEquals(0.0, ImageUtil.distanceBetween(img, ImageUtil.resample(doubled, 3, 2)));
+		
+		BinaryImage wide = new BinaryImage(130, 1);
+		wide.setInk(129, 0);
+		BinaryImage narrow = ImageUtil.resample(wide, 65, 1);
+		Assert.assertTrue(narrow.isInk(64, 0));
+		Assert.assertEquals(1, narrow.rowProfile()[0]);
+	}
+
+	@Test
+	public void testBinarizeMatchesGetRGB(){
+		Random random = new Random(7);
+		int[] types = {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB, 
+				BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_BYTE_GRAY, 
+				BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_BYTE_INDEXED};
+		for (int type : types){
+			BufferedImage img = new BufferedImage(75, 9, type);
+			for (int y = 0 ; y < img.getHeight() ; y ++){
+				for (int x = 0 ; x < img.getWidth() ; x ++){
+					img.setRGB(x, y, 0xff000000 | random.nextInt(0x1000000));
+				}
+			}
+			assertBinarizedAsGetRGB(img, 127);
+			assertBinarizedAsGetRGB(img.getSubimage(3, 2, 70, 5), 127);
+			assertBinarizedAsGetRGB(img, ImageUtil.otsuThreshold(img));
+		}
+	}
+	
+	private void assertBinarizedAsGetRGB(BufferedImage img, int threshold){
+		BinaryImage bits = ImageUtil.binarize(img, threshold);
+		BufferedImage thresholded = ImageUtil.threshold(img, threshold);
+		for (int y = 0 ; y < img.getHeight() ; y ++){
+			for (int x = 0 ; x < img.getWidth() ; x ++){
+				int rgb = img.getRGB(x, y);
+				boolean ink = ((rgb >> 16) & (rgb >> 8) & rgb & 0xff) < threshold;
+				Assert.assertEquals("type " + img.getType() + " at " + x + "," + y, ink, bits.isInk(x, y));
+				Assert.assertEquals(ink ? 0 : 0xffffff, thresholded.getRGB(x, y) & 0xffffff);
+			}
+		}
+	}
+	
+	@Test
+	public void testOtsuThreshold(){
+		BufferedImage img = new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = 0 ; y < 10 ; y ++){
+			for (int x = 0 ; x < 10 ; x ++){
+				img.getRaster().setSample(x, y, 0, x < 3 ? 60 : 200);
+			}
+		}
+		int threshold = ImageUtil.otsuThreshold(img);
+		BinaryImage bits = ImageUtil.binarize(img, threshold);
+		Assert.assertEquals(30, bits.columnProfile(0, 9)[0] + bits.columnProfile(0, 9)[1] + bits.columnProfile(0, 9)[2]);
+		Assert.assertEquals(0, bits.columnProfile(0, 9)[3]);
+	}
+}
@@ -0,0 +1,70 @@
+package com.venky.ocr;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Models and metrics shared by the tests.
+ */
+class Fixtures {
+	static BufferedImage read(String name) throws IOException {
+		return ImageIO.read(Fixtures.class.getResourceAsStream("/com/venky/ocr/" + name));
+	}
+
+	/**
+	 * monospace.properties with the given properties set over it. Overrides alternate names and values.
+	 */
+	static Properties properties(String... overrides) throws IOException {
+		Properties properties = new Properties();
+		properties.load(Fixtures.class.getResourceAsStream("/com/venky/ocr/monospace.properties"));
+		for (int i = 0; i < overrides.length; i += 2) {
+			properties.setProperty(overrides[i], overrides[i + 1]);
+		}
+		return properties;
+	}
+
+	/**
+	 * The monospace model trained afresh, so that it shares no caches with other tests, with the given properties
+	 * set over monospace.properties.
+	 */
+	static FontModel model(String... overrides) throws IOException {
+		return new FontModel("monospace", properties(overrides), read("monospace-big.jpg"));
+	}
+
+	/**
+	 * Collects the metrics the recognizers report from now on, in the order they are reported.
+	 */
+	static Metrics metrics(TextRecognizer... recognizers) {
+		Metrics metrics = new Metrics();
+		for (TextRecognizer recognizer : recognizers) {
+			recognizer.setMetricsListener(metrics);
+		}
+		return metrics;
+	}
+
+	static class Metrics implements MetricsListener {
+		private final List<RecognitionMetrics> reported = Collections.synchronizedList(new ArrayList<RecognitionMetrics>());
+
+		public void recognized(RecognitionMetrics metrics) {
+			reported.add(metrics);
+		}
+
+		int size() {
+			return reported.size();
+		}
+
+		RecognitionMetrics get(int call) {
+			return reported.get(call);
+		}
+
+		long getCount(int call, RecognitionMetrics.Counter counter) {
+			return get(call).getCount(counter);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.venky.ocr;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.venky.ocr.TextRecognizer.CharacterRegion;
+
+public class FontModelTest {
+	@Test
+	public void testCompiledModelRoundTrip() throws IOException{
+		FontModel trained = new FontModel("monospace");
+		File file = File.createTempFile("monospace", ".ocrm");
+		file.deleteOnExit();
+		trained.write(file);
+		
+		FontModel loaded = FontModel.load(file);
+		Assert.assertEquals(trained.getTrainingMap().keySet(), loaded.getTrainingMap().keySet());
+		Assert.assertEquals(trained.getHistogram().getTrainingCharactersByHeight(), loaded.getHistogram().getTrainingCharactersByHeight());
+		Assert.assertEquals(trained.getHistogram().getTrainingCharactersByWidth(), loaded.getHistogram().getTrainingCharactersByWidth());
+
+		StringBuffer out = new TextRecognizer(loaded).recognize(getClass().getResourceAsStream("/com/venky/ocr/a-z.jpg"));
+		Assert.assertEquals("abcdefghijklmnopqrstuvwxyz",out.toString().trim());
+	}
+
+	@Test
+	public void testCompiledModelFromJar() throws IOException{
+		FontModel trained = FontModel.get("monospace");
+		File jar = File.createTempFile("monospace", ".jar");
+		jar.deleteOnExit();
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			out.putNextEntry(new JarEntry("com/venky/ocr/monospace.ocrm"));
+			trained.write(out);
+			out.closeEntry();
+		}finally {
+			out.close();
+		}
+		
+		FontModel loaded = FontModel.compiled(new URL("jar:" + jar.toURI().toURL() + "!/com/venky/ocr/monospace.ocrm"));
+		Assert.assertEquals(trained.getTrainingMap().keySet(), loaded.getTrainingMap().keySet());
+		StringBuffer text = new TextRecognizer(loaded).recognize(getClass().getResourceAsStream("/com/venky/ocr/a-z.jpg"));
+		Assert.assertEquals("abcdefghijklmnopqrstuvwxyz",text.toString().trim());
+	}
+
+	@Test
+	public void testCandidateLimit() throws IOException{
+		TextRecognizer exactRecognizer = new TextRecognizer(Fixtures.model("candidateLimit", "0"));
+		TextRecognizer limitedRecognizer = new TextRecognizer(Fixtures.model("candidateLimit", "8"));
+		Fixtures.Metrics metrics = Fixtures.metrics(exactRecognizer, limitedRecognizer);
+		String expected = exactRecognizer.recognize(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg")).toString();
+		Assert.assertEquals(expected, limitedRecognizer.recognize(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg")).toString());
+		Assert.assertEquals(0, metrics.getCount(0, RecognitionMetrics.Counter.PRUNED_BY_FEATURES));
+		Assert.assertTrue(metrics.getCount(1, RecognitionMetrics.Counter.COMPARISONS) < metrics.getCount(0, RecognitionMetrics.Counter.COMPARISONS));
+	}
+
+	@Test
+	public void testRetainNearest(){
+		FontModel model = FontModel.get("monospace");
+		GlyphIndex index = model.getGlyphIndex();
+		GlyphIndex.Scratch scratch = index.newScratch();
+		for (Map.Entry<Character, CharacterRegion> entry : model.getTrainingMap().entrySet()){
+			BitSet candidates = (BitSet)model.getCharacters().clone();
+			index.retainNearest(entry.getValue(), candidates, 3, scratch);
+			Assert.assertEquals(3, candidates.cardinality());
+			float[] features = GlyphIndex.features(entry.getValue());
+			Assert.assertTrue(candidates.get(entry.getKey()) || Arrays.equals(features, GlyphIndex.features(model.getTemplate((char)candidates.nextSetBit(0)))));
+			
+			BitSet again = (BitSet)model.getCharacters().clone();
+			index.retainNearest(entry.getValue(), again, 3, scratch);
+			Assert.assertEquals(candidates, again);
+		}
+	}
+
+	@Test
+	public void testScaledTemplateCache() throws IOException{
+		FontModel model = FontModel.get("monospace");
+		BinaryImage scaled = model.getScaledTemplate('A', 31, 47);
+		Assert.assertEquals(31, scaled.getWidth());
+		Assert.assertEquals(47, scaled.getHeight());
+		Assert.assertSame(scaled, model.getScaledTemplate('A', 31, 47));
+		Assert.assertNotSame(scaled, model.getScaledTemplate('B', 31, 47));
+		for (int h = 48 ; h < 48 + 64 ; h ++){ // More sizes than one template keeps.
+			Assert.assertEquals(h, model.getScaledTemplate('A', 31, h).getHeight());
+		}
+		Assert.assertNotSame(scaled, model.getScaledTemplate('A', 31, 47));
+		Assert.assertTrue(Arrays.equals(scaled.words(), model.getScaledTemplate('A', 31, 47).words()));
+		
+		FontModel uncached = Fixtures.model("templateCacheSize", "0");
+		Assert.assertNotSame(uncached.getScaledTemplate('A', 31, 47), uncached.getScaledTemplate('A', 31, 47));
+	}
+
+	@Test
+	public void testNearestScaling() throws IOException{
+		FontModel nearest = Fixtures.model("scalingMode", "nearest");
+		Assert.assertTrue(nearest.isNearestScaling());
+		Assert.assertFalse(FontModel.get("monospace").isNearestScaling());
+		
+		TextRecognizer recognizer = new TextRecognizer(nearest);
+		Assert.assertEquals("Uu", recognizer.recognize(getClass().getResourceAsStream("/com/venky/ocr/Uu.jpg")).toString().trim());
+		Assert.assertEquals("X .", recognizer.recognize(getClass().getResourceAsStream("/com/venky/ocr/Xdot.jpg")).toString().trim());
+		
+		// Every fixture reads as it does with bicubic scaling, except that n ties with r.
+		TextRecognizer bicubic = new TextRecognizer();
+		for (String fixture : new String[]{"Uu", "Xdot", "a-z", "beautiful", "f", "nru", "stress"}){
+			String expected = bicubic.recognize(getClass().getResourceAsStream("/com/venky/ocr/" + fixture + ".jpg")).toString();
+			Assert.assertEquals(fixture, expected.replace("n", "[n, r]"), recognizer.recognize(getClass().getResourceAsStream("/com/venky/ocr/" + fixture + ".jpg")).toString());
+		}
+		Assert.assertEquals(bicubic.recognize(getClass().getResourceAsStream("/com/venky/ocr/monospace.jpg"), 8).toString(), 
+				recognizer.recognize(getClass().getResourceAsStream("/com/venky/ocr/monospace.jpg"), 8).toString());
+		
+		final List<GlyphResult> glyphs = new ArrayList<GlyphResult>();
+		recognizer.recognize(ImageIO.read(getClass().getResourceAsStream("/com/venky/ocr/nru.jpg")), 1, new RecognitionListener() {
+			public void recognized(GlyphResult glyph) {
+				glyphs.add(glyph);
+			}
+			public void endOfLine(int lineNumber) {
+			}
+		});
+		Assert.assertEquals(3, glyphs.size());
+		Assert.assertEquals(new TreeSet<Character>(Arrays.asList('n', 'r')), glyphs.get(0).getCandidates());
+		Assert.assertEquals('r', glyphs.get(1).getCharacter());
+		Assert.assertEquals('u', glyphs.get(2).getCharacter());
+	}
+
+	@Test
+	public void testOtsuThresholdMode() throws IOException{
+		TextRecognizer otsu = new TextRecognizer(Fixtures.model("thresholdMode", "otsu"));
+		BufferedImage img = ImageIO.read(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg"));
+		Assert.assertTrue(otsu.getThreshold(img) > 0 && otsu.getThreshold(img) < 256);
+		Assert.assertEquals(new TextRecognizer().recognize(img).toString(), otsu.recognize(img).toString());
+	}
+}
@@ -1,10 +1,44 @@
 package com.venky.ocr;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 
 import junit.framework.Assert;
 
 import org.junit.Test;
+
+import com.venky.ocr.TextRecognizer.Line;
  
 public class TextRecognitionTest {
 	@Test
@@ -15,11 +49,470 @@ public class TextRecognitionTest {
 		Assert.assertEquals("","! \" # $ % & ' ( ) * + , - . / 0 1 2 3 4 5 6 7 8 9 : ; < = > ? @ A B C D E F G H I J K L M N O P Q R S T U V W X Y Z [ \\ ] ^ _ ` a b c d e f g h i j k l m n o p q r s t u v w x y z { | } ~",out.toString().trim());
 	}
 
+	@Test
+	public void testModelIsShared(){
+		Assert.assertSame(new TextRecognizer().getModel(), new TextRecognizer().getModel());
+		Assert.assertSame(FontModel.get("monospace"), new TextRecognizer().getModel());
+	}
+
+	@Test
+	public void testConcurrentRecognition() throws Exception{
+		final TextRecognizer monospace = new TextRecognizer();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0 ; i < 16 ; i ++){
+				final String name = (i % 2 == 0) ? "/com/venky/ocr/a-z.jpg" : "/com/venky/ocr/beautiful.jpg";
+				results.add(executor.submit(new Callable<String>() {
+					public String call() throws Exception {
+						return monospace.recognize(getClass().getResourceAsStream(name)).toString().trim();
+					}
+				}));
+			}
+			for (int i = 0 ; i < results.size() ; i ++){
+				Assert.assertEquals((i % 2 == 0) ? "abcdefghijklmnopqrstuvwxyz" : "beautiful font", results.get(i).get());
+			}
+		}finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallelRecognition() throws Exception{
+		TextRecognizer monospace = new TextRecognizer();
+		BufferedImage stress = ImageIO.read(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg"));
+		Assert.assertEquals(monospace.recognize(stress).toString(), monospace.recognizeInParallel(stress, 1).toString());
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Assert.assertEquals(monospace.recognize(stress).toString(), monospace.recognize(stress, 1, executor).toString());
+		}finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchRecognition() throws Exception{
+		String[] names = new String[]{"a-z", "beautiful", "f", "Uu", "Xdot"};
+		String[] expected = new String[]{"abcdefghijklmnopqrstuvwxyz", "beautiful font", "f", "Uu", "X ."};
+		List<BatchRecognizer.ImageSource> sources = new ArrayList<BatchRecognizer.ImageSource>();
+		for (String name : names){
+			sources.add(BatchRecognizer.source(getClass().getResourceAsStream("/com/venky/ocr/" + name + ".jpg")));
+		}
+		BatchRecognizer batch = new BatchRecognizer(new TextRecognizer(), 2, 2, 1, 2);
+		Iterator<BatchRecognizer.Result> results = batch.recognize(sources, 1);
+		int count = 0;
+		while (results.hasNext()){
+			BatchRecognizer.Result result = results.next();
+			Assert.assertTrue(result.isSuccessful());
+			Assert.assertEquals(expected[result.getIndex()], result.getText().toString().trim());
+			count ++;
+		}
+		Assert.assertEquals(names.length, count);
+	}
+
+	@Test
+	public void testStreamSourceIsClosed() throws Exception{
+		final AtomicBoolean closed = new AtomicBoolean();
+		InputStream in = new FilterInputStream(getClass().getResourceAsStream("/com/venky/ocr/f.jpg")) {
+			public void close() throws IOException {
+				closed.set(true);
+				super.close();
+			}
+		};
+		Assert.assertNotNull(BatchRecognizer.source(in).read());
+		Assert.assertTrue(closed.get());
+	}
+
+	@Test(timeout = 10000)
+	public void testBatchSourceFailure() throws Exception{
+		final Iterator<BatchRecognizer.ImageSource> sources = Arrays.asList(
+				BatchRecognizer.source(getClass().getResourceAsStream("/com/venky/ocr/f.jpg")), 
+				BatchRecognizer.source(getClass().getResourceAsStream("/com/venky/ocr/Uu.jpg"))).iterator();
+		Iterator<BatchRecognizer.ImageSource> failing = new Iterator<BatchRecognizer.ImageSource>() {
+			public boolean hasNext() {
+				return true;
+			}
+			public BatchRecognizer.ImageSource next() {
+				if (!sources.hasNext()){
+					throw new IllegalStateException("listing failed");
+				}
+				return sources.next();
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		Iterator<BatchRecognizer.Result> results = new BatchRecognizer(new TextRecognizer(), 2, 2, 1, 2).recognize(failing, 1);
+		int successful = 0;
+		int failed = 0;
+		while (results.hasNext()){
+			BatchRecognizer.Result result = results.next();
+			if (result.isSuccessful()){
+				successful ++;
+			}else {
+				Assert.assertNull(result.getSource());
+				Assert.assertEquals("listing failed", result.getError().getMessage());
+				failed ++;
+			}
+		}
+		Assert.assertEquals(2, successful);
+		Assert.assertEquals(1, failed);
+	}
+
+	@Test
+	public void testMetrics() throws Exception{
+		TextRecognizer monospace = new TextRecognizer();
+		Fixtures.Metrics reported = Fixtures.metrics(monospace);
+		monospace.recognize(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg"));
+		Assert.assertEquals(1, reported.size());
+		RecognitionMetrics metrics = reported.get(0);
+		System.out.println(metrics);
+		Assert.assertEquals(2, metrics.getCount(RecognitionMetrics.Counter.LINES));
+		Assert.assertTrue(metrics.getCount(RecognitionMetrics.Counter.GLYPHS) >= 30);
+		Assert.assertTrue(metrics.getCount(RecognitionMetrics.Counter.COMPARISONS) > metrics.getCount(RecognitionMetrics.Counter.PRUNED_BY_SIZE));
+		Assert.assertTrue(metrics.getNanos(RecognitionMetrics.Stage.DECODE) > 0);
+		Assert.assertTrue(metrics.getNanos(RecognitionMetrics.Stage.MATCH) > 0);
+	}
+
+	@Test
+	public void testRecognitionListener() throws Exception{
+		TextRecognizer monospace = new TextRecognizer();
+		final BufferedImage img = ImageIO.read(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg"));
+		final StringBuilder text = new StringBuilder();
+		final List<GlyphResult> glyphs = new ArrayList<GlyphResult>();
+		monospace.recognize(img, 1, new RecognitionListener() {
+			public void recognized(GlyphResult glyph) {
+				glyphs.add(glyph);
+				text.append(glyph);
+			}
+			public void endOfLine(int lineNumber) {
+				text.append(System.getProperty("line.separator"));
+			}
+		});
+		Assert.assertEquals(monospace.recognize(img, 1).toString(), text.toString());
+		int spaces = 0;
+		for (GlyphResult glyph : glyphs){
+			Assert.assertTrue(glyph.getLineNumber() >= 1);
+			Assert.assertTrue(img.getRaster().getBounds().contains(glyph.getBounds()));
+			Assert.assertEquals(glyph.isSpace(), glyph.moveTo(glyph.getLineNumber() + 1, 1).isSpace());
+			if (glyph.isSpace()){
+				Assert.assertEquals(" ", glyph.toString());
+				spaces ++;
+			}
+			if (!glyph.isSpace() && !glyph.isAmbiguous() && !glyph.getCandidates().isEmpty()){
+				Assert.assertEquals(glyph.getCandidates().first().charValue(), glyph.getCharacter());
+				Assert.assertTrue(glyph.getDistance() >= 0);
+			}
+		}
+		Assert.assertTrue(spaces > 0);
+	}
+
+	@Test
+	public void testPageLayout() throws Exception{
+		TextRecognizer monospace = new TextRecognizer();
+		BufferedImage img = ImageIO.read(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg"));
+		PageLayout layout = monospace.layout(img, 1);
+		Rectangle page = new Rectangle(0, 0, layout.getWidth(), layout.getHeight());
+		Assert.assertEquals(monospace.recognize(img, 1).toString(), monospace.recognize(layout, page).toString());
+		
+		final List<GlyphResult> expected = new ArrayList<GlyphResult>();
+		monospace.recognize(img, 1, new RecognitionListener() {
+			public void recognized(GlyphResult glyph) {
+				expected.add(glyph);
+			}
+			public void endOfLine(int lineNumber) {
+			}
+		});
+		Line line = layout.getLine(2);
+		Rectangle region = new Rectangle(layout.getWidth() / 4, line.startRow(), layout.getWidth() / 2, line.height());
+		for (int query = 0 ; query < 2 ; query ++){
+			final List<GlyphResult> glyphs = new ArrayList<GlyphResult>();
+			monospace.recognize(layout, region, new RecognitionListener() {
+				public void recognized(GlyphResult glyph) {
+					glyphs.add(glyph);
+				}
+				public void endOfLine(int lineNumber) {
+					Assert.assertEquals(2, lineNumber);
+				}
+			});
+			Iterator<GlyphResult> e = expected.iterator();
+			for (GlyphResult glyph : glyphs){
+				Rectangle bounds = glyph.getBounds();
+				Assert.assertEquals(2, glyph.getLineNumber());
+				Assert.assertTrue(region.contains(bounds.getCenterX(), bounds.getCenterY()));
+				GlyphResult match = e.next();
+				while (!match.getBounds().equals(bounds)){
+					match = e.next();
+				}
+				Assert.assertEquals(match.toString(), glyph.toString());
+			}
+			Assert.assertTrue(glyphs.size() > 2);
+		}
+		Assert.assertNull(layout.getLine(3));
+		Assert.assertEquals(0, monospace.recognize(layout, new Rectangle(0, 0, layout.getWidth(), 1)).length());
+	}
+
+	@Test
+	public void testFontRegistry() throws Exception{
+		BufferedImage training = ImageIO.read(getClass().getResourceAsStream("/com/venky/ocr/monospace-big.jpg"));
+		BufferedImage mirrored = new BufferedImage(training.getWidth(), training.getHeight(), training.getType());
+		for (int y = 0 ; y < training.getHeight() ; y ++){
+			for (int x = 0 ; x < training.getWidth() ; x ++){
+				mirrored.setRGB(training.getWidth() - 1 - x, y, training.getRGB(x, y));
+			}
+		}
+		List<TextRecognizer> recognizers = new ArrayList<TextRecognizer>();
+		recognizers.add(new TextRecognizer(new FontModel("mirrored", Fixtures.properties(), mirrored)));
+		recognizers.add(new TextRecognizer());
+		FontRegistry registry = new FontRegistry(recognizers, 8, 0.5);
+		
+		BufferedImage img = ImageIO.read(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg"));
+		StringBuffer out = new StringBuffer();
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		final AtomicInteger tasks = new AtomicInteger();
+		List<String> fonts;
+		try {
+			fonts = registry.recognize(img, 1, new Executor() {
+				public void execute(Runnable task) {
+					tasks.incrementAndGet();
+					pool.execute(task);
+				}
+			}, new TextRecognizer.TextWriter(out));
+		}finally {
+			pool.shutdown();
+		}
+		Assert.assertEquals(new TextRecognizer().recognize(img, 1).toString(), out.toString());
+		Assert.assertEquals(2, fonts.size());
+		for (String font : fonts){
+			Assert.assertEquals("monospace", font);
+		}
+		// A sample per font and line, then at least the rest of every line, all on the executor.
+		Assert.assertTrue(tasks.get() >= fonts.size() * (recognizers.size() + 1));
+		
+		for (TextRecognizer recognizer : recognizers){
+			for (Line line : recognizer.getLines(img, 1)){
+				for (GlyphResult glyph : recognizer.recognize(line, recognizer.getCandidateBand(line), 0, line.characterImages.size())){
+					if (!glyph.getCandidates().isEmpty()){
+						Assert.assertTrue(glyph.getDistance() <= recognizer.getComparedArea(glyph));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBandReuse() throws Exception{
+		BufferedImage stress = ImageIO.read(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg"));
+		BufferedImage tall = new BufferedImage(stress.getWidth(), stress.getHeight() * 4, stress.getType());
+		Graphics2D g = tall.createGraphics();
+		for (int i = 0 ; i < 4 ; i ++){
+			g.drawImage(stress, 0, i * stress.getHeight(), null);
+		}
+		g.dispose();
+		StringBuilder expected = new StringBuilder();
+		String single = new TextRecognizer().recognize(stress).toString();
+		for (int i = 0 ; i < 4 ; i ++){
+			expected.append(single);
+		}
+		
+		for (FontModel m : new FontModel[]{Fixtures.model(), Fixtures.model("pageBandSampleLines", "2")}){
+			TextRecognizer recognizer = new TextRecognizer(m);
+			Fixtures.Metrics reported = Fixtures.metrics(recognizer);
+			Assert.assertEquals(expected.toString(), recognizer.recognize(tall).toString());
+			Assert.assertTrue(reported.getCount(0, RecognitionMetrics.Counter.BANDS_REUSED) >= 6);
+		}
+	}
+
+	@Test
+	public void testGlyphCache() throws Exception{
+		BufferedImage stress = ImageIO.read(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg"));
+		BufferedImage tall = frame(stress, 0, 0, 0, 0);
+		FontModel uncached = Fixtures.model("glyphCacheSize", "0");
+		Assert.assertNull(uncached.getGlyphCache());
+		String expected = new TextRecognizer(uncached).recognize(tall, 1).toString();
+		
+		FontModel cached = Fixtures.model();
+		// A new recognizer each pass; the second one reuses what the first matched through the model.
+		TextRecognizer[] recognizers = { new TextRecognizer(cached), new TextRecognizer(cached) };
+		Fixtures.Metrics reported = Fixtures.metrics(recognizers);
+		for (int pass = 0 ; pass < 2 ; pass ++){
+			Assert.assertEquals(expected, recognizers[pass].recognize(tall, 1).toString());
+			RecognitionMetrics metrics = reported.get(pass);
+			long hits = metrics.getCount(RecognitionMetrics.Counter.GLYPH_CACHE_HITS);
+			long misses = metrics.getCount(RecognitionMetrics.Counter.GLYPH_CACHE_MISSES);
+			Assert.assertEquals(metrics.getCount(RecognitionMetrics.Counter.GLYPHS), hits + misses);
+			Assert.assertTrue(hits >= 3 * misses); // Every copy after the first hits.
+			if (pass > 0){
+				Assert.assertEquals(0, misses);
+				Assert.assertTrue(metrics.getCount(RecognitionMetrics.Counter.COMPARISONS) < reported.getCount(0, RecognitionMetrics.Counter.COMPARISONS));
+			}
+		}
+		Assert.assertEquals(reported.getCount(0, RecognitionMetrics.Counter.GLYPH_CACHE_MISSES), cached.getGlyphCache().size());
+	}
+
+	@Test
+	public void testRecognitionSession() throws Exception{
+		TextRecognizer monospace = new TextRecognizer();
+		BufferedImage stress = ImageIO.read(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg"));
+		RecognitionSession session = new RecognitionSession(monospace, 1);
+		
+		BufferedImage frame = frame(stress, 0, 0, 0, 0);
+		Assert.assertEquals(monospace.recognize(frame, 1).toString(), session.recognize(frame).toString());
+		Assert.assertEquals(2, session.getLinesMatched()); // The other copies repeat the first.
+		
+		frame = frame(stress, 0, 0, 40, 0);
+		Assert.assertEquals(monospace.recognize(frame, 1).toString(), session.recognize(frame).toString());
+		Assert.assertEquals(2, session.getLinesMatched());
+		
+		final List<GlyphResult> expected = new ArrayList<GlyphResult>();
+		final List<GlyphResult> reused = new ArrayList<GlyphResult>();
+		frame = frame(stress, 0, 40, 0, 0);
+		monospace.recognize(frame, 1, collect(expected));
+		session.recognize(frame, collect(reused));
+		Assert.assertEquals(0, session.getLinesMatched()); // Every line was on the last frame, if not in the same place.
+		Assert.assertEquals(expected.size(), reused.size());
+		for (int i = 0 ; i < expected.size() ; i ++){
+			Assert.assertEquals(expected.get(i).toString(), reused.get(i).toString());
+			Assert.assertEquals(expected.get(i).getLineNumber(), reused.get(i).getLineNumber());
+			Assert.assertEquals(expected.get(i).getBounds(), reused.get(i).getBounds());
+		}
+	}
+	
+	private static BufferedImage frame(BufferedImage copy, int... shifts){
+		int h = copy.getHeight();
+		BufferedImage frame = new BufferedImage(copy.getWidth() + 40, h * shifts.length, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = frame.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, frame.getWidth(), frame.getHeight());
+		for (int i = 0 ; i < shifts.length ; i ++){
+			g.drawImage(copy, shifts[i], i * h, null);
+		}
+		g.dispose();
+		return frame;
+	}
+	
+	private static RecognitionListener collect(final List<GlyphResult> glyphs){
+		return new RecognitionListener() {
+			public void recognized(GlyphResult glyph) {
+				glyphs.add(glyph);
+			}
+			public void endOfLine(int lineNumber) {
+			}
+		};
+	}
+
+	@Test
+	public void testStripRecognition() throws Exception{
+		TextRecognizer monospace = new TextRecognizer();
+		BufferedImage stress = ImageIO.read(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg"));
+		BufferedImage tall = new BufferedImage(stress.getWidth(), stress.getHeight() * 4, stress.getType());
+		Graphics2D g = tall.createGraphics();
+		for (int i = 0 ; i < 4 ; i ++){
+			g.drawImage(stress, 0, i * stress.getHeight(), null);
+		}
+		g.dispose();
+		for (String format : new String[]{"png", "jpg"}){
+			for (boolean progressive : new boolean[]{false, true}){
+				File file = File.createTempFile("tall", "." + format);
+				file.deleteOnExit();
+				write(tall, format, progressive, file);
+				ImageInputStream in = ImageIO.createImageInputStream(file);
+				ImageReader reader = ImageIO.getImageReaders(in).next();
+				reader.setInput(in, true, false);
+				Assert.assertEquals(progressive, StreamedImage.create(reader) == null);
+				reader.dispose();
+				in.close();
+				
+				String expected = monospace.recognize(ImageIO.read(file)).toString();
+				for (int stripHeight : new int[]{1, 7, 1000}){
+					StringBuilder out = new StringBuilder();
+					monospace.recognizeInStrips(ImageIO.createImageInputStream(file), 1, stripHeight, out);
+					Assert.assertEquals(expected, out.toString());
+				}
+			}
+		}
+	}
+	
+	private static void write(BufferedImage img, String format, boolean progressive, File file) throws IOException{
+		ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setProgressiveMode(progressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+		ImageOutputStream out = ImageIO.createImageOutputStream(file);
+		try {
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(img, null, null), param);
+		}finally {
+			writer.dispose();
+			out.close();
+		}
+	}
+
+	@Test
+	public void testRawGrayRecognition() throws Exception{
+		TextRecognizer monospace = new TextRecognizer();
+		BufferedImage stress = ImageIO.read(getClass().getResourceAsStream("/com/venky/ocr/stress.jpg"));
+		int w = stress.getWidth();
+		int h = stress.getHeight();
+		int header = 13;
+		int stride = w + 5;
+		byte[] raw = new byte[header + h * stride];
+		for (int y = 0 ; y < h ; y ++){
+			for (int x = 0 ; x < w ; x ++){
+				int rgb = stress.getRGB(x, y);
+				raw[header + y * stride + x] = (byte)((rgb >> 16) & (rgb >> 8) & rgb);
+			}
+		}
+		String expected = monospace.recognize(stress).toString();
+		ByteBuffer gray = ByteBuffer.wrap(raw);
+		gray.position(header);
+		Assert.assertEquals(expected, monospace.recognize(gray, w, h, stride, 1).toString());
+		Assert.assertEquals(header, gray.position());
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(raw.length);
+		direct.put(raw).position(header);
+		Assert.assertEquals(expected, monospace.recognize(direct, w, h, stride, 1).toString());
+
+		File file = File.createTempFile("stress", ".gray");
+		file.deleteOnExit();
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(raw);
+		}finally{
+			os.close();
+		}
+		Assert.assertEquals(expected, monospace.recognize(file, header, w, h, stride, 1).toString());
+	}
+
 	@Test
 	public void testHistogram(){
 		TextRecognizer monospace = new TextRecognizer();
 		monospace.getHistogram().printHeightDistribution();
 	}
+	
+	@Test
+	public void testHistogramBands(){
+		Histogram histogram = new TextRecognizer().getHistogram();
+		SortedMap<Integer, List<Character>> byHeight = histogram.getTrainingCharactersByHeight();
+		Assert.assertEquals(byHeight.firstKey().intValue(), histogram.getMinHeight());
+		Assert.assertEquals(byHeight.lastKey().intValue(), histogram.getMaxHeight());
+		Assert.assertEquals(-1, histogram.ceilingHeight(histogram.getMaxHeight() + 1));
+		for (int h = 0 ; h <= histogram.getMaxHeight() ; h ++){
+			Assert.assertEquals(byHeight.tailMap(h).firstKey().intValue(), histogram.ceilingHeight(h));
+			
+			BitSet taller = new BitSet();
+			histogram.addCharactersTallerThan(h, 2, taller);
+			Set<Character> expected = new TreeSet<Character>();
+			int bands = 0;
+			for (List<Character> band : byHeight.tailMap(h + 1).values()){
+				if (bands++ < 2){
+					expected.addAll(band);
+				}
+			}
+			Assert.assertEquals(expected, new TreeSet<Character>(histogram.getCharactersTallerThan(h, 2)));
+			Assert.assertEquals(expected.size(), taller.cardinality());
+		}
+	}
 	@Test
 	public void testf() throws IOException {
 		TextRecognizer monospace = new TextRecognizer();